@@ -94,22 +94,21 @@ public class AndroidDriverBinding implements DriverBinding {
 
     @Override
     public int controlTransfer(int requestType, int request, int value, int index, ByteBuffer buffer, int timeout) {
-        if (buffer == null)
-            buffer = this.allocateBuffer(0);
-
-        if (!buffer.hasArray())
+        if (buffer != null && !buffer.hasArray())
             throw new IllegalArgumentException("Buffer must be array based (should be allocated using allocateBuffer(int)).");
 
-        final byte[] bytes = buffer.array();
+        // Zero length transfers don't need a buffer at all
+        final byte[] bytes = buffer == null ? null : buffer.array();
+        final int length = bytes == null ? 0 : bytes.length;
 
         final UsbDeviceConnection conn = this.getConnection();
-        final int read = conn.controlTransfer(requestType, request, value, index, bytes, bytes.length, timeout);
+        final int read = conn.controlTransfer(requestType, request, value, index, bytes, length, timeout);
 
         return read;
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
         if (conn == null)
             return;
 
@@ -0,0 +1,101 @@
+package com.jamierf.maestro.benchmarks;
+
+import com.jamierf.maestro.MaestroServoController;
+import com.jamierf.maestro.api.Product;
+import com.jamierf.maestro.api.Status;
+import com.jamierf.maestro.api.StatusSnapshot;
+import com.jamierf.maestro.settings.ChannelSettings;
+import com.jamierf.maestro.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ControllerBenchmark {
+
+    @Param({"MICRO6", "MINI24"})
+    public Product product;
+
+    // Simulated time taken by each USB transfer, in nanoseconds
+    @Param({"0", "100000"})
+    public long latency;
+
+    private MaestroServoController controller;
+    private StatusSnapshot snapshot;
+    private int[] targets;
+
+    private Settings[] settings;
+    private int settingsIndex;
+
+    private int target;
+
+    @Setup
+    public void setUp() {
+        controller = new MaestroServoController(new SimulatedDriverBinding(product, latency));
+        snapshot = new StatusSnapshot(product.getPorts());
+        targets = new int[product.getPorts()];
+
+        // Alternate between two settings which differ by a single channel parameter
+        settings = new Settings[] {
+            Settings.DEFAULT_SETTINGS,
+            Settings.DEFAULT_SETTINGS.withChannel(0, ChannelSettings.builder().setAcceleration(10).build())
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        controller.close();
+    }
+
+    private int nextTarget() {
+        target = target == 4000 ? 8000 : 4000;
+        return target;
+    }
+
+    @Benchmark
+    public void setTarget() {
+        controller.setTarget(0, this.nextTarget());
+    }
+
+    @Benchmark
+    public void setTargets() {
+        final int value = this.nextTarget();
+        for (int i = 0; i < targets.length; i++)
+            targets[i] = value;
+
+        controller.setTargets(0, targets);
+    }
+
+    @Benchmark
+    public List<Status> getStatus() {
+        return controller.getStatus();
+    }
+
+    @Benchmark
+    public StatusSnapshot getStatusSnapshot() {
+        controller.getStatus(snapshot);
+        return snapshot;
+    }
+
+    @Benchmark
+    public void updateSettingsUnchanged() {
+        controller.updateSettings(settings[0]);
+    }
+
+    @Benchmark
+    public void updateSettingsChanged() {
+        settingsIndex ^= 1;
+        controller.updateSettings(settings[settingsIndex]);
+    }
+}
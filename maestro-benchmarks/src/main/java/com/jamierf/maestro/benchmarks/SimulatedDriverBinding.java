@@ -0,0 +1,55 @@
+package com.jamierf.maestro.benchmarks;
+
+import com.jamierf.maestro.api.Product;
+import com.jamierf.maestro.binding.DriverBinding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Accepts every transfer after a fixed delay, to measure the host side cost of the controller
+public class SimulatedDriverBinding implements DriverBinding {
+
+    private final Product product;
+    private final long latency;
+
+    public SimulatedDriverBinding(Product product, long latency) {
+        this.product = product;
+        this.latency = latency;
+    }
+
+    @Override
+    public ByteBuffer allocateBuffer(int length) {
+        return ByteBuffer.allocateDirect(length);
+    }
+
+    @Override
+    public int getVendorId() {
+        return product.getVendorId();
+    }
+
+    @Override
+    public int getProductId() {
+        return product.getProductId();
+    }
+
+    @Override
+    public String getSerial() {
+        return "00000000";
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index, ByteBuffer buffer, int timeout) throws IOException {
+        if (latency > 0) {
+            // Spin rather than sleep, sleeping has far coarser granularity than a USB transfer
+            final long deadline = System.nanoTime() + latency;
+            while (System.nanoTime() < deadline);
+        }
+
+        return buffer == null ? 0 : buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
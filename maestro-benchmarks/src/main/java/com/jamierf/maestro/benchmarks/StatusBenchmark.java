@@ -0,0 +1,54 @@
+package com.jamierf.maestro.benchmarks;
+
+import com.jamierf.maestro.api.Status;
+import com.jamierf.maestro.api.StatusSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatusBenchmark {
+
+    private static final int CHANNELS = 24;
+
+    private ByteBuffer payload;
+    private StatusSnapshot snapshot;
+
+    @Setup
+    public void setUp() {
+        final byte[] bytes = new byte[CHANNELS * Status.BYTE_LENGTH];
+        new Random(0).nextBytes(bytes);
+
+        payload = ByteBuffer.allocateDirect(bytes.length);
+        payload.put(bytes);
+
+        snapshot = new StatusSnapshot(CHANNELS);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        payload.clear();
+
+        for (int servo = 0; servo < CHANNELS; servo++)
+            blackhole.consume(Status.decode(payload));
+    }
+
+    @Benchmark
+    public StatusSnapshot decodeSnapshot() {
+        payload.clear();
+        snapshot.decode(payload, 0, CHANNELS);
+
+        return snapshot;
+    }
+}
@@ -0,0 +1,7 @@
+package com.jamierf.maestro;
+
+public interface InputListener {
+
+    // Value is 0-1023 for analog inputs, digital inputs read either 0 or 1023
+    public void onInputChanged(int channel, int value, long timestamp);
+}
@@ -0,0 +1,182 @@
+package com.jamierf.maestro;
+
+import com.jamierf.maestro.api.ChannelMode;
+import com.jamierf.maestro.api.StatusSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Samples input channels, only telling listeners about changes which pass each channel's filter
+public class InputSampler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InputSampler.class);
+
+    private static final int UNSAMPLED = -1;
+
+    private final MaestroServoController controller;
+    private final List<InputListener> listeners;
+
+    // Reused for every sample, only the channels up to the highest sampled are read
+    private final StatusSnapshot snapshot;
+
+    // Per channel filters, a threshold of 0 means the channel isn't sampled
+    private final int[] thresholds;
+    private final int[] debounces;
+
+    private final int[] reported;
+    private final int[] pending;
+
+    private int to;
+    private ScheduledExecutorService executor;
+
+    public InputSampler(MaestroServoController controller) {
+        this.controller = controller;
+
+        listeners = new CopyOnWriteArrayList<InputListener>();
+
+        final int ports = controller.getProduct().getPorts();
+
+        snapshot = new StatusSnapshot(ports);
+        thresholds = new int[ports];
+        debounces = new int[ports];
+        reported = new int[ports];
+        pending = new int[ports];
+    }
+
+    public void addListener(InputListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(InputListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Any change is reported once it has been seen in a single sample
+    public void addChannel(int channel) {
+        this.addChannel(channel, 1, 1);
+    }
+
+    // A change is only reported once it differs from the last reported value by at least the
+    // threshold, for debounce consecutive samples. The first sample is always reported.
+    public synchronized void addChannel(int channel, int threshold, int debounce) {
+        if (channel < 0 || channel >= thresholds.length)
+            throw new IllegalArgumentException("Invalid channel " + channel);
+
+        if (controller.getSettings().getChannel(channel).getChannelMode() != ChannelMode.INPUT)
+            throw new IllegalArgumentException("Channel " + channel + " is not configured as an input");
+
+        if (threshold < 1 || debounce < 1)
+            throw new IllegalArgumentException("Threshold and debounce must both be at least 1");
+
+        thresholds[channel] = threshold;
+        debounces[channel] = debounce;
+        reported[channel] = UNSAMPLED;
+        pending[channel] = 0;
+
+        to = Math.max(to, channel + 1);
+    }
+
+    public synchronized void removeChannel(int channel) {
+        thresholds[channel] = 0;
+
+        to = 0;
+        for (int i = 0; i < thresholds.length; i++) {
+            if (thresholds[i] > 0)
+                to = i + 1;
+        }
+    }
+
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null)
+            throw new IllegalStateException("Input sampler already running");
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "maestro-inputs-" + controller.getSerialNumber());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputSampler.this.sample();
+                } catch (RuntimeException e) {
+                    // Don't let a failed transfer cancel future samples
+                    LOG.warn("Failed to sample inputs", e);
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (executor == null)
+            return;
+
+        executor.shutdown();
+        executor = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    // Takes a single sample, normally called by the sampling thread
+    public synchronized void sample() {
+        if (to == 0)
+            return;
+
+        controller.getStatus(0, to, snapshot);
+
+        final long timestamp = snapshot.getTimestamp();
+        for (int channel = 0; channel < to; channel++) {
+            if (thresholds[channel] == 0)
+                continue;
+
+            final int value = snapshot.getPosition(channel);
+            if (reported[channel] != UNSAMPLED && Math.abs(value - reported[channel]) < thresholds[channel]) {
+                pending[channel] = 0;
+                continue;
+            }
+
+            if (reported[channel] != UNSAMPLED && ++pending[channel] < debounces[channel])
+                continue;
+
+            reported[channel] = value;
+            pending[channel] = 0;
+
+            this.notifyListeners(channel, value, timestamp);
+        }
+    }
+
+    private void notifyListeners(int channel, int value, long timestamp) {
+        for (InputListener listener : listeners) {
+            try {
+                listener.onInputChanged(channel, value, timestamp);
+            } catch (RuntimeException e) {
+                LOG.warn("Input listener failed", e);
+            }
+        }
+    }
+
+    // The last value reported for each channel, or -1 if it hasn't been sampled yet
+    public synchronized int[] getValues() {
+        final int[] values = Arrays.copyOf(reported, reported.length);
+        for (int channel = 0; channel < values.length; channel++) {
+            if (thresholds[channel] == 0)
+                values[channel] = UNSAMPLED;
+        }
+
+        return values;
+    }
+}
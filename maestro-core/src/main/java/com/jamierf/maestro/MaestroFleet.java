@@ -0,0 +1,161 @@
+package com.jamierf.maestro;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.jamierf.maestro.binding.DriverBinding;
+import com.jamierf.maestro.settings.Settings;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// A set of controllers keyed by serial number, each driven by its own I/O thread
+public class MaestroFleet implements Closeable {
+
+    private static ListeningExecutorService createExecutor(final String serial) {
+        return MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "maestro-fleet-" + serial);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    private final Map<String, MaestroServoController> controllers;
+    private final Map<String, ListeningExecutorService> executors;
+
+    public MaestroFleet(Collection<? extends DriverBinding> drivers) {
+        this (drivers, Settings.DEFAULT_SETTINGS);
+    }
+
+    public MaestroFleet(Collection<? extends DriverBinding> drivers, final Settings settings) {
+        final Map<String, ListeningExecutorService> executors = Maps.newLinkedHashMap();
+        final List<ListenableFuture<MaestroServoController>> opening = Lists.newArrayList();
+
+        // Open every controller on its own thread, connecting applies settings which is slow
+        for (final DriverBinding driver : drivers) {
+            final String serial = driver.getSerial();
+            if (executors.containsKey(serial))
+                throw new IllegalArgumentException("Duplicate serial number " + serial);
+
+            final ListeningExecutorService executor = MaestroFleet.createExecutor(serial);
+            executors.put(serial, executor);
+
+            opening.add(executor.submit(new Callable<MaestroServoController>() {
+                @Override
+                public MaestroServoController call() {
+                    return new MaestroServoController(driver, settings);
+                }
+            }));
+        }
+
+        this.executors = ImmutableMap.copyOf(executors);
+
+        final ImmutableMap.Builder<String, MaestroServoController> controllers = ImmutableMap.builder();
+        try {
+            for (MaestroServoController controller : Futures.allAsList(opening).get())
+                controllers.put(controller.getSerialNumber(), controller);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.shutdown(opening);
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            this.shutdown(opening);
+            throw new RuntimeException("Unable to open controller", e.getCause());
+        }
+
+        this.controllers = controllers.build();
+    }
+
+    // Closes whichever controllers did manage to open
+    private void shutdown(List<ListenableFuture<MaestroServoController>> opening) {
+        for (ListenableFuture<MaestroServoController> future : opening) {
+            try {
+                future.get().close();
+            } catch (Exception e) {
+                // Failed to open, nothing to close
+            }
+        }
+
+        for (ListeningExecutorService executor : executors.values())
+            executor.shutdownNow();
+    }
+
+    public Set<String> getSerialNumbers() {
+        return controllers.keySet();
+    }
+
+    public Collection<MaestroServoController> getControllers() {
+        return controllers.values();
+    }
+
+    public Optional<MaestroServoController> get(String serial) {
+        return Optional.fromNullable(controllers.get(serial));
+    }
+
+    // Runs the task on the controller's I/O thread
+    public <T> ListenableFuture<T> submit(String serial, final Function<MaestroServoController, T> task) {
+        final MaestroServoController controller = controllers.get(serial);
+        if (controller == null)
+            throw new IllegalArgumentException("Unknown controller " + serial);
+
+        return executors.get(serial).submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return task.apply(controller);
+            }
+        });
+    }
+
+    // Runs the task against every controller in parallel, one thread per device
+    public <T> ListenableFuture<Map<String, T>> submitAll(Function<MaestroServoController, T> task) {
+        final List<String> serials = Lists.newArrayList(controllers.keySet());
+        final List<ListenableFuture<T>> futures = Lists.newArrayListWithCapacity(serials.size());
+
+        for (String serial : serials)
+            futures.add(this.submit(serial, task));
+
+        return Futures.transform(Futures.allAsList(futures), new Function<List<T>, Map<String, T>>() {
+            @Override
+            public Map<String, T> apply(List<T> results) {
+                final Map<String, T> map = Maps.newLinkedHashMap();
+                for (int i = 0; i < serials.size(); i++)
+                    map.put(serials.get(i), results.get(i));
+
+                return map;
+            }
+        });
+    }
+
+    public void close() {
+        for (ListeningExecutorService executor : executors.values())
+            executor.shutdown();
+
+        for (ListeningExecutorService executor : executors.values()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (MaestroServoController controller : controllers.values())
+            controller.close();
+    }
+}
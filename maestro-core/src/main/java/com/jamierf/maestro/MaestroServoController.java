@@ -1,27 +1,78 @@
 package com.jamierf.maestro;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.jamierf.maestro.api.OutagePolicy;
 import com.jamierf.maestro.api.Parameter;
 import com.jamierf.maestro.api.Product;
 import com.jamierf.maestro.api.Request;
 import com.jamierf.maestro.api.Status;
+import com.jamierf.maestro.api.StatusSnapshot;
+import com.jamierf.maestro.api.SerialMode;
+import com.jamierf.maestro.binding.AsyncDriverBinding;
+import com.jamierf.maestro.binding.CommandPort;
+import com.jamierf.maestro.binding.DeviceDisconnectedException;
 import com.jamierf.maestro.binding.DriverBinding;
+import com.jamierf.maestro.metrics.MetricsListener;
+import com.jamierf.maestro.metrics.TransferMetrics;
+import com.jamierf.maestro.protocol.CompactProtocol;
+import com.jamierf.maestro.script.Program;
+import com.jamierf.maestro.script.ScriptCompiler;
 import com.jamierf.maestro.settings.ChannelSettings;
+import com.jamierf.maestro.settings.ParameterCache;
 import com.jamierf.maestro.settings.Settings;
+import com.jamierf.maestro.settings.TargetConversions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
+// Thread safe. Channels can be commanded from any number of threads, which only contend on the
+// connection's transfer lock since the device handles a single transfer at a time. Settings are
+// immutable and swapped atomically, updates are serialized with each other but not with commands.
 public class MaestroServoController implements Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(MaestroServoController.class);
 
     private static final double INSTRUCTION_FREQUENCY = 12000000;
     private static final int REQUEST_TIMEOUT = 5000;
+    private static final int STATUS_HISTORY_LENGTH = 64;
+
+    // Script memory is written 16 bytes at a time, the subroutine table follows the largest possible script
+    private static final int SCRIPT_BLOCK_LENGTH = 16;
+    private static final int SUBROUTINES_PER_BLOCK = SCRIPT_BLOCK_LENGTH / 2;
+
+    private static final CompactProtocol COMPACT_PROTOCOL = new CompactProtocol(false);
+    private static final CompactProtocol COMPACT_PROTOCOL_CRC = new CompactProtocol(true);
+
+    // Parameter codes are a single byte, including the per-port offsets
+    private static final int PARAMETER_COUNT = 256;
+    private static final int UNKNOWN_PARAMETER = Integer.MIN_VALUE;
+
+    // Micro Maestro variables preceding the servo statuses
+    private static final int VARIABLES_LENGTH = 1 + 1 + 2 + 2 + (2 * 3) + (2 * 32) + (2 * 10) + 1 + 1;
 
     private static int convertBpsToSpbrg(double bps) {
         if (bps == 0)
@@ -30,6 +81,15 @@ public class MaestroServoController implements Closeable {
         return (int) ((INSTRUCTION_FREQUENCY - bps / 2D) / bps);
     }
 
+    private static boolean isDisconnect(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof DeviceDisconnectedException)
+                return true;
+        }
+
+        return false;
+    }
+
     private static int channelToPort(int channel) {
         if (channel <= 3)
             return channel;
@@ -45,23 +105,125 @@ public class MaestroServoController implements Closeable {
     protected final String serialNumber;
     protected final String firmwareVersion;
 
-    protected Settings settings;
+    protected volatile Settings settings;
+
+    // Derived from the settings whenever they change, targets are clamped and converted against these
+    private volatile TargetConversions conversions;
+
+    // Guards updates to settings and the parameter image
+    private final Object settingsLock = new Object();
+
+    // The last value written for each parameter code, so unchanged parameters aren't rewritten
+    private final int[] parameters;
+    private final Optional<ParameterCache> cache;
+
+    // Whether the parameter image has learnt anything since it was last saved to the cache
+    private boolean parametersChanged;
+
+    // Scratch space for clamped targets, so batched writes don't allocate
+    private final ThreadLocal<int[]> targets;
+
+    // The micro maestro appends servo statuses to its variables, the minis only return them with their settings
+    private final Request statusRequest;
+    private final int statusOffset;
+
+    private final StatusPoller poller;
+    private final MotionMonitor motion;
+
+    // Writes of the value a register already holds are skipped unless forced
+    private final ShadowRegisters shadow;
+
+    // With a serial timeout set the device goes to its home targets if it hears nothing for the
+    // timeout period, so skipped writes are sent anyway once this long has passed without a write
+    private volatile long keepAlive = Long.MAX_VALUE;
+
+    // System.nanoTime() of the last target, speed or acceleration write, status read before it is stale
+    private volatile long lastWrite = System.nanoTime();
+
+    // Optional, when attached targets are streamed through it rather than sent as control transfers
+    private volatile CommandPort commandPort;
+    private final Object commandLock = new Object();
+    private final ThreadLocal<ByteBuffer> commandBuffers;
+
+    // While disconnected commands are either rejected, or kept in the shadow and sent on reconnect
+    private volatile OutagePolicy outagePolicy = OutagePolicy.REJECT;
+    private volatile long maxOutage = Long.MAX_VALUE;
+
+    private final AtomicLong outages = new AtomicLong();
+    private final AtomicLong bufferedWrites = new AtomicLong();
+    private volatile long lastRecoveryTime;
+    private volatile long maxRecoveryTime;
+
+    // Set from the first reconnect attempt after an outage until one succeeds, guarded by the settings lock
+    private boolean recovering;
+    private long recoveringSince;
+
+    // Writes hold the read lock, a reconnect holds the write lock until the shadow has been resent
+    private final ReadWriteLock resumeLock = new ReentrantReadWriteLock();
+
+    // Created when first enabled, along with the MBean publishing it
+    private TransferMetrics metrics;
+    private ObjectName metricsName;
 
     public MaestroServoController(DriverBinding driver) {
         this (driver, Settings.DEFAULT_SETTINGS);
     }
 
     public MaestroServoController(DriverBinding driver, Settings settings) {
+        this (driver, settings, Optional.<ParameterCache>absent());
+    }
+
+    // The cache lets a restart skip applying settings which are already on the device
+    public MaestroServoController(DriverBinding driver, Settings settings, ParameterCache cache) {
+        this (driver, settings, Optional.of(cache));
+    }
+
+    private MaestroServoController(DriverBinding driver, Settings settings, Optional<ParameterCache> cache) {
         final Optional<Product> product = Product.fromId(driver.getVendorId(), driver.getProductId());
         if (!product.isPresent())
             throw new RuntimeException("Attempting to connect to unrecognised device");
 
         this.product = product.get();
+        this.targets = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[MaestroServoController.this.product.getPorts()];
+            }
+        };
+        this.commandBuffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                final int ports = MaestroServoController.this.product.getPorts();
+                return ByteBuffer.allocate(Math.max(CompactProtocol.getMultipleTargetsLength(ports), ports * CompactProtocol.MAX_CHANNEL_COMMAND_LENGTH));
+            }
+        };
+        this.statusRequest = this.product == Product.MICRO6 ? Request.GET_VARIABLES : Request.GET_SETTINGS;
+        this.statusOffset = this.product == Product.MICRO6 ? VARIABLES_LENGTH : 0;
 
         conn = new MaestroUsbConnection(driver, REQUEST_TIMEOUT);
         serialNumber = conn.getSerialNumber();
         firmwareVersion = conn.getFirmwareVersion();
 
+        // Anything we don't know is on the device is read back before it is written
+        parameters = new int[PARAMETER_COUNT];
+        Arrays.fill(parameters, UNKNOWN_PARAMETER);
+
+        this.cache = cache;
+        if (cache.isPresent()) {
+            final Optional<Map<Integer, Integer>> cached = cache.get().load(serialNumber, firmwareVersion);
+            if (cached.isPresent()) {
+                for (Map.Entry<Integer, Integer> parameter : cached.get().entrySet()) {
+                    final int slot = parameter.getKey();
+                    if (slot >= 0 && slot < PARAMETER_COUNT)
+                        parameters[slot] = parameter.getValue();
+                }
+            }
+        }
+
+        poller = new StatusPoller(this, STATUS_HISTORY_LENGTH);
+        motion = new MotionMonitor(this);
+        shadow = new ShadowRegisters(this.product.getPorts());
+
         // Set the initial settings
         this.updateSettings(settings);
     }
@@ -82,6 +244,55 @@ public class MaestroServoController implements Closeable {
         return settings;
     }
 
+    public Optional<CommandPort> getCommandPort() {
+        return Optional.fromNullable(commandPort);
+    }
+
+    // Pass null to go back to sending targets as control transfers
+    public void setCommandPort(CommandPort commandPort) {
+        final SerialMode mode = settings.getSerialMode();
+        if (commandPort != null && mode != SerialMode.USB_DUAL_PORT && mode != SerialMode.USB_CHAINED)
+            throw new IllegalStateException("Command port doesn't accept commands in serial mode " + mode);
+
+        this.commandPort = commandPort;
+    }
+
+    public void addMetricsListener(MetricsListener listener) {
+        conn.addMetricsListener(listener);
+    }
+
+    public void removeMetricsListener(MetricsListener listener) {
+        conn.removeMetricsListener(listener);
+    }
+
+    // Starts recording transfer metrics and registers them as an MBean, until then transfers aren't timed
+    public synchronized TransferMetrics enableMetrics() {
+        if (metrics != null)
+            return metrics;
+
+        metrics = new TransferMetrics();
+        conn.addMetricsListener(metrics);
+
+        try {
+            final ObjectName name = new ObjectName("com.jamierf.maestro:type=TransferMetrics,serial=" + ObjectName.quote(serialNumber));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException e) {
+            // Most likely another controller for the same device, metrics are still recorded
+            LOG.warn("Unable to register transfer metrics MBean", e);
+        }
+
+        return metrics;
+    }
+
+    public synchronized Optional<TransferMetrics> getMetrics() {
+        return Optional.fromNullable(metrics);
+    }
+
+    public StatusPoller getPoller() {
+        return poller;
+    }
+
     private void setParameter(Parameter parameter, int value) {
         final byte code = parameter.getCode();
         final Parameter.Range range = parameter.getRange();
@@ -97,7 +308,18 @@ public class MaestroServoController implements Closeable {
     }
 
     private void setParameter(byte code, Parameter.Range range, int value) {
-        final int index = (range.getBytes() << 8) + code;
+        final int slot = code & 0xFF;
+
+        // Reading is cheaper than an EEPROM write, and doesn't wear it out
+        if (parameters[slot] == UNKNOWN_PARAMETER) {
+            parameters[slot] = this.readParameter(code, range);
+            parametersChanged = true;
+        }
+
+        if (parameters[slot] == value)
+            return;
+
+        final int index = (range.getBytes() << 8) + slot;
 
         // Ensure we are within the correct byte range
 //        final int mask = (int) Math.pow(2, range.getBytes()) - 1;
@@ -105,13 +327,89 @@ public class MaestroServoController implements Closeable {
 
         // TODO: Ensure we are within the correct numeric range?
 
-        LOG.debug("Sending parameter: " + index + " = " + value);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Sending parameter: " + index + " = " + value);
 
         conn.send(Request.SET_PARAMETER, value, index);
+        parameters[slot] = value;
+        parametersChanged = true;
+    }
+
+    private int readParameter(byte code, Parameter.Range range) {
+        final ByteBuffer payload = conn.request(Request.GET_PARAMETER, 0, code & 0xFF, range.getBytes());
+
+        // Parameters are stored little endian
+        int value = 0;
+        for (int i = range.getBytes() - 1; i >= 0; i--)
+            value = (value << 8) | (payload.get(payload.position() + i) & 0xFF);
+
+        conn.releaseBuffer(payload);
+        return value;
+    }
+
+    // Always read from the device, rather than trusting what we last wrote
+    public int getParameter(Parameter parameter) {
+        return this.getParameter(parameter.getCode(), parameter.getRange());
+    }
+
+    public int getParameter(Parameter parameter, int port) {
+        if (port < 0 || port >= product.getPorts())
+            throw new IllegalArgumentException("Invalid port number " + port);
+
+        return this.getParameter((byte) (parameter.getCode() + (port * 9)), parameter.getRange());
+    }
+
+    private int getParameter(byte code, Parameter.Range range) {
+        synchronized (settingsLock) {
+            final int value = this.readParameter(code, range);
+            if (parameters[code & 0xFF] != value) {
+                parameters[code & 0xFF] = value;
+                parametersChanged = true;
+            }
+
+            return value;
+        }
+    }
+
+    // Called with the settings lock held, the cache file is only rewritten if a parameter was read or written
+    private void saveParameters() {
+        if (!cache.isPresent() || !parametersChanged)
+            return;
+
+        final Map<Integer, Integer> known = Maps.newTreeMap();
+        for (int slot = 0; slot < parameters.length; slot++) {
+            if (parameters[slot] != UNKNOWN_PARAMETER)
+                known.put(slot, parameters[slot]);
+        }
+
+        cache.get().save(serialNumber, firmwareVersion, known);
+        parametersChanged = false;
+    }
+
+    public void updateChannel(int port, ChannelSettings channel) {
+        if (port < 0 || port >= product.getPorts())
+            throw new IllegalArgumentException("Invalid port number " + port);
+
+        synchronized (settingsLock) {
+            // Only the parameters for this port (and the IO masks) can differ, so the rest are skipped
+            this.applySettings(settings.withChannel(port, channel));
+            this.saveParameters();
+        }
     }
 
     public void updateSettings(Settings settings) {
+        synchronized (settingsLock) {
+            this.applySettings(settings);
+            this.saveParameters();
+        }
+    }
+
+    private void applySettings(Settings settings) {
         this.settings = settings;
+        this.conversions = new TargetConversions(settings, product.getPorts());
+
+        // The timeout is in units of 10ms, resend at half of it to leave some margin
+        keepAlive = settings.getTimeout() == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(settings.getTimeout() * 10L) / 2;
 
         LOG.info("Applying settings: " + settings);
 
@@ -174,8 +472,8 @@ public class MaestroServoController implements Closeable {
         }
 
         if (product == Product.MICRO6) {
-            this.setParameter(Parameter.IO_MASK_C, ioMask);
-            this.setParameter(Parameter.OUTPUT_MASK_C, outputMask);
+            this.setParameter(Parameter.IO_MASK_C, ioMask & 0xFF);
+            this.setParameter(Parameter.OUTPUT_MASK_C, outputMask & 0xFF);
         }
         else {
             for (int port = 0; port < channelModeBytes.length; port++) {
@@ -184,24 +482,81 @@ public class MaestroServoController implements Closeable {
         }
     }
 
-    // TODO: different for minis
+    private static List<Status> toStatusList(StatusSnapshot snapshot) {
+        final ImmutableList.Builder<Status> channels = ImmutableList.builder();
+
+        for (int servo = 0; servo < snapshot.getChannels(); servo++)
+            channels.add(snapshot.getStatus(servo));
+
+        return channels.build();
+    }
+
     public List<Status> getStatus() {
-        final int skip = 1 + 1 + 2 + 2 + (2 * 3) + (2 * 32) + (2 * 10) + 1 + 1;
+        final StatusSnapshot snapshot = new StatusSnapshot(product.getPorts());
+        this.getStatus(snapshot);
 
-        final int length = skip + (product.getPorts() * Status.BYTE_LENGTH); // TODO
-        final ByteBuffer payload = conn.request(Request.GET_VARIABLES, length);
+        return MaestroServoController.toStatusList(snapshot);
+    }
 
-        // TODO: Read the first ? bytes as micro variables
-        payload.position(payload.position() + skip);
+    public void getStatus(StatusSnapshot into) {
+        this.getStatus(0, product.getPorts(), into);
+    }
 
-        final ImmutableList.Builder<Status> channels = ImmutableList.builder();
+    // Channels from (inclusive) to to (exclusive). Statuses are always read from the first channel,
+    // so the transfer only shrinks when the range ends early.
+    public List<Status> getStatus(int from, int to) {
+        final StatusSnapshot snapshot = new StatusSnapshot(to);
+        this.getStatus(from, to, snapshot);
+
+        return MaestroServoController.toStatusList(snapshot).subList(from, to);
+    }
+
+    // Leaves the channels outside the range untouched
+    public void getStatus(int from, int to, StatusSnapshot into) {
+        if (from < 0 || to > product.getPorts() || from >= to)
+            throw new IllegalArgumentException("Invalid channel range " + from + " to " + to + " for " + product);
+
+        if (into.getChannels() < to)
+            throw new IllegalArgumentException("Snapshot has " + into.getChannels() + " channels, requires " + to);
 
-        for (int servo = 0; servo < product.getPorts(); servo++) {
-            final Status status = Status.decode(payload);
-            channels.add(status);
+        final ByteBuffer payload = conn.request(statusRequest, 0x0000, 0x0000, statusOffset + (to * Status.BYTE_LENGTH));
+
+        try {
+            this.decodeStatus(payload, from, to, into);
+        } finally {
+            conn.releaseBuffer(payload);
         }
+    }
 
-        return channels.build();
+    public ListenableFuture<List<Status>> getStatusAsync() {
+        final int ports = product.getPorts();
+        final ListenableFuture<ByteBuffer> payload = conn.requestAsync(statusRequest, 0x0000, 0x0000, statusOffset + (ports * Status.BYTE_LENGTH));
+
+        return Futures.transform(payload, new Function<ByteBuffer, List<Status>>() {
+            @Override
+            public List<Status> apply(ByteBuffer payload) {
+                final StatusSnapshot snapshot = new StatusSnapshot(ports);
+
+                try {
+                    MaestroServoController.this.decodeStatus(payload, 0, ports, snapshot);
+                } finally {
+                    conn.releaseBuffer(payload);
+                }
+
+                return MaestroServoController.toStatusList(snapshot);
+            }
+        });
+    }
+
+    private void decodeStatus(ByteBuffer payload, int from, int to, StatusSnapshot into) {
+        // The device sends multi-byte values little endian
+        payload.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Servo statuses follow the Micro Maestro's variables, the mini maestro settings start with them
+        payload.position(payload.position() + statusOffset + (from * Status.BYTE_LENGTH));
+
+        into.decode(payload, from, to - from);
+        into.setTimestamp(System.nanoTime());
     }
 
     public void resetTarget(int servo) {
@@ -209,33 +564,645 @@ public class MaestroServoController implements Closeable {
         this.setTarget(servo, channel.getHome());
     }
 
+    private void checkServo(int servo) {
+        if (servo < 0 || servo >= product.getPorts())
+            throw new IllegalArgumentException("Invalid servo " + servo);
+    }
+
     public void setTarget(int servo, int value) {
-        final ChannelSettings channel = settings.getChannel(servo);
-        if (value < channel.getMinimum())
-            value = channel.getMinimum();
+        this.setTarget(servo, value, false);
+    }
 
-        if (value > channel.getMaximum())
-            value = channel.getMaximum();
+    // Forcing sends the target even if it was the last one sent, for when the device may have changed it
+    public void setTarget(int servo, int value, boolean force) {
+        this.checkServo(servo);
 
         // value is the pulse width in units of quarter-microseconds
-        conn.send(Request.SET_TARGET, value, servo);
+        this.sendRegister(Request.SET_TARGET, servo, servo, ShadowRegisters.TARGET, conversions.clamp(servo, value), force);
+    }
+
+    // -1 is neutral - range and 1 is neutral + range, clamped to the channel minimum and maximum
+    public void setTargetNormalized(int servo, float value) {
+        this.checkServo(servo);
+        this.sendRegister(Request.SET_TARGET, servo, servo, ShadowRegisters.TARGET, conversions.fromNormalized(servo, value), false);
+    }
+
+    // Degrees either side of neutral, scaled by the channel's range in degrees
+    public void setTargetDegrees(int servo, float angle) {
+        this.checkServo(servo);
+        this.sendRegister(Request.SET_TARGET, servo, servo, ShadowRegisters.TARGET, conversions.fromDegrees(servo, angle), false);
+    }
+
+    private void sendRegister(Request request, int servo, int index, int register, int value, boolean force) {
+        resumeLock.readLock().lock();
+        try {
+            this.writeRegister(request, servo, index, register, value, force);
+        } finally {
+            resumeLock.readLock().unlock();
+        }
+    }
+
+    private void writeRegister(Request request, int servo, int index, int register, int value, boolean force) {
+        final boolean changed = shadow.update(servo, register, value);
+
+        // The shadow now holds the value, which is all a reconnect needs to send it
+        if (this.isBuffering()) {
+            bufferedWrites.incrementAndGet();
+            return;
+        }
+
+        if (!changed && !force && this.isSuppressible()) {
+            shadow.suppressed(register, 1);
+            return;
+        }
+
+        try {
+            conn.send(request, value, index);
+            lastWrite = System.nanoTime();
+        } catch (RuntimeException e) {
+            if (this.isBuffering() && MaestroServoController.isDisconnect(e)) {
+                bufferedWrites.incrementAndGet();
+                return;
+            }
+
+            shadow.forget(servo, register);
+            throw e;
+        }
+    }
+
+    private ListenableFuture<Void> sendRegisterAsync(Request request, final int servo, int index, final int register, int value) {
+        resumeLock.readLock().lock();
+        try {
+            final boolean changed = shadow.update(servo, register, value);
+
+            if (this.isBuffering()) {
+                bufferedWrites.incrementAndGet();
+                return Futures.immediateFuture(null);
+            }
+
+            if (!changed && this.isSuppressible()) {
+                shadow.suppressed(register, 1);
+                return Futures.immediateFuture(null);
+            }
+
+            lastWrite = System.nanoTime();
+
+            final ListenableFuture<Void> future = conn.sendAsync(request, value, index);
+            Futures.addCallback(future, new FutureCallback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    // Reads made while the write was in flight may not include it
+                    lastWrite = System.nanoTime();
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    // Lost to a disconnect while buffering, the value is kept to be sent on reconnect
+                    if (!MaestroServoController.this.isBuffering() || !MaestroServoController.isDisconnect(cause))
+                        shadow.forget(servo, register);
+                }
+            });
+
+            return future;
+        } finally {
+            resumeLock.readLock().unlock();
+        }
+    }
+
+    public void setTargets(Map<Integer, Integer> values) {
+        final SortedMap<Integer, Integer> sorted = ImmutableSortedMap.copyOf(values);
+
+        final int[] run = new int[sorted.size()];
+        int first = 0;
+        int count = 0;
+
+        // Split the targets in to runs of contiguous channels
+        for (Map.Entry<Integer, Integer> entry : sorted.entrySet()) {
+            final int servo = entry.getKey();
+            if (count > 0 && servo != first + count) {
+                this.setTargets(first, run, 0, count);
+                count = 0;
+            }
+
+            if (count == 0)
+                first = servo;
+
+            run[count++] = entry.getValue();
+        }
+
+        if (count > 0)
+            this.setTargets(first, run, 0, count);
+    }
+
+    public void setTargets(int firstChannel, int[] values) {
+        this.setTargets(firstChannel, values, 0, values.length);
+    }
+
+    public void setTargets(int firstChannel, int[] values, int offset, int count) {
+        this.checkTargets(firstChannel, values.length, offset, count);
+
+        // Clamp the whole frame against the same settings, even if they are swapped part way through
+        final TargetConversions conversions = this.conversions;
+
+        final int[] targets = this.targets.get();
+        for (int i = 0; i < count; i++)
+            targets[i] = conversions.clamp(firstChannel + i, values[offset + i]);
+
+        this.sendTargets(firstChannel, targets, count);
+    }
+
+    public void setTargetsNormalized(float[] values) {
+        this.setTargetsNormalized(0, values, 0, values.length);
+    }
+
+    public void setTargetsNormalized(int firstChannel, float[] values, int offset, int count) {
+        this.checkTargets(firstChannel, values.length, offset, count);
+
+        final TargetConversions conversions = this.conversions;
+
+        final int[] targets = this.targets.get();
+        for (int i = 0; i < count; i++)
+            targets[i] = conversions.fromNormalized(firstChannel + i, values[offset + i]);
+
+        this.sendTargets(firstChannel, targets, count);
+    }
+
+    public void setTargetsDegrees(float[] angles) {
+        this.setTargetsDegrees(0, angles, 0, angles.length);
+    }
+
+    public void setTargetsDegrees(int firstChannel, float[] angles, int offset, int count) {
+        this.checkTargets(firstChannel, angles.length, offset, count);
+
+        final TargetConversions conversions = this.conversions;
+
+        final int[] targets = this.targets.get();
+        for (int i = 0; i < count; i++)
+            targets[i] = conversions.fromDegrees(firstChannel + i, angles[offset + i]);
+
+        this.sendTargets(firstChannel, targets, count);
+    }
+
+    long getLastWrite() {
+        return lastWrite;
+    }
+
+    // Whether an unchanged write can be skipped without letting the serial timeout expire
+    private boolean isSuppressible() {
+        return System.nanoTime() - lastWrite < keepAlive;
+    }
+
+    private void checkTargets(int firstChannel, int length, int offset, int count) {
+        if (firstChannel < 0 || count < 0 || firstChannel + count > product.getPorts())
+            throw new IllegalArgumentException("Invalid channel range " + firstChannel + " to " + (firstChannel + count - 1));
+
+        if (offset < 0 || offset + count > length)
+            throw new IllegalArgumentException("Invalid offset " + offset + " for " + count + " targets");
+    }
+
+    private void sendTargets(int firstChannel, int[] values, int count) {
+        resumeLock.readLock().lock();
+        try {
+            if (this.isBuffering()) {
+                for (int i = 0; i < count; i++)
+                    shadow.update(firstChannel + i, ShadowRegisters.TARGET, values[i]);
+
+                bufferedWrites.addAndGet(count);
+                return;
+            }
+
+            final CommandPort port = commandPort;
+            if (port != null) {
+                // A single write carries the whole run, so only skip it if nothing changed
+                boolean changed = false;
+                for (int i = 0; i < count; i++)
+                    changed |= shadow.update(firstChannel + i, ShadowRegisters.TARGET, values[i]);
+
+                if (!changed && this.isSuppressible()) {
+                    shadow.suppressed(ShadowRegisters.TARGET, count);
+                    return;
+                }
+
+                try {
+                    this.streamTargets(port, firstChannel, values, count);
+                } catch (RuntimeException e) {
+                    for (int i = 0; i < count; i++)
+                        shadow.forget(firstChannel + i, ShadowRegisters.TARGET);
+
+                    throw e;
+                }
+
+                return;
+            }
+
+            // The vendor control requests have no multiple target variant, so fall back to a transfer per channel
+            for (int i = 0; i < count; i++)
+                this.writeRegister(Request.SET_TARGET, firstChannel + i, firstChannel + i, ShadowRegisters.TARGET, values[i], false);
+        } finally {
+            resumeLock.readLock().unlock();
+        }
+    }
+
+    private void streamTargets(CommandPort port, int firstChannel, int[] values, int count) {
+        final CompactProtocol protocol = settings.isEnableCrc() ? COMPACT_PROTOCOL_CRC : COMPACT_PROTOCOL;
+
+        final ByteBuffer buffer = commandBuffers.get();
+        buffer.clear();
+
+        // Only the mini maestros support setting multiple targets, otherwise pack individual commands
+        if (product != Product.MICRO6 && count > 1) {
+            protocol.setMultipleTargets(buffer, firstChannel, values, 0, count);
+        }
+        else {
+            for (int i = 0; i < count; i++)
+                protocol.setTarget(buffer, firstChannel + i, values[i]);
+        }
+
+        buffer.flip();
+
+        try {
+            synchronized (commandLock) {
+                port.write(buffer);
+            }
+
+            lastWrite = System.nanoTime();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public ListenableFuture<Void> setTargetAsync(int servo, int value) {
+        this.checkServo(servo);
+        return this.sendRegisterAsync(Request.SET_TARGET, servo, servo, ShadowRegisters.TARGET, conversions.clamp(servo, value));
     }
 
     public void setSpeed(int servo, int value) {
-        conn.send(Request.SET_VARIABLE, value, servo);
+        this.setSpeed(servo, value, false);
+    }
+
+    public void setSpeed(int servo, int value, boolean force) {
+        this.checkServo(servo);
+        this.sendRegister(Request.SET_VARIABLE, servo, servo, ShadowRegisters.SPEED, value, force);
+    }
+
+    public ListenableFuture<Void> setSpeedAsync(int servo, int value) {
+        this.checkServo(servo);
+        return this.sendRegisterAsync(Request.SET_VARIABLE, servo, servo, ShadowRegisters.SPEED, value);
     }
 
     public void setAcceleration(int servo, int value) {
+        this.setAcceleration(servo, value, false);
+    }
+
+    public void setAcceleration(int servo, int value, boolean force) {
+        this.checkServo(servo);
+
         // set the high bit of servo to specify acceleration
-        conn.send(Request.SET_VARIABLE, value, (servo | 0x80));
+        this.sendRegister(Request.SET_VARIABLE, servo, (servo | 0x80), ShadowRegisters.ACCELERATION, value, force);
+    }
+
+    public ListenableFuture<Void> setAccelerationAsync(int servo, int value) {
+        this.checkServo(servo);
+        return this.sendRegisterAsync(Request.SET_VARIABLE, servo, (servo | 0x80), ShadowRegisters.ACCELERATION, value);
+    }
+
+    // The number of writes skipped because the register already held the value
+    public long getSuppressedTargetWrites() {
+        return shadow.getSuppressed(ShadowRegisters.TARGET);
+    }
+
+    public long getSuppressedSpeedWrites() {
+        return shadow.getSuppressed(ShadowRegisters.SPEED);
+    }
+
+    public long getSuppressedAccelerationWrites() {
+        return shadow.getSuppressed(ShadowRegisters.ACCELERATION);
+    }
+
+    // Forgets every value sent, so the next write to each register goes to the device. Call this if
+    // anything else may have changed them, such as a script or another controller.
+    public void invalidateShadow() {
+        shadow.invalidate();
+    }
+
+    public boolean isMoving() {
+        return motion.isMoving();
+    }
+
+    // Asks the device whether any servo is moving, used by the motion monitor when a command port is attached
+    boolean readMovingState(CommandPort port) {
+        final CompactProtocol protocol = settings.isEnableCrc() ? COMPACT_PROTOCOL_CRC : COMPACT_PROTOCOL;
+
+        final ByteBuffer buffer = commandBuffers.get();
+        buffer.clear();
+        protocol.getMovingState(buffer);
+        buffer.flip();
+
+        try {
+            synchronized (commandLock) {
+                port.write(buffer);
+
+                buffer.clear();
+                buffer.limit(1);
+                port.read(buffer, REQUEST_TIMEOUT);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return buffer.get(0) != 0;
     }
 
+    public boolean isMoving(int servo) {
+        return motion.isMoving(servo);
+    }
+
+    public boolean awaitTarget(int servo, int tolerance, long timeout, TimeUnit unit) throws InterruptedException {
+        return motion.awaitTarget(servo, tolerance, timeout, unit);
+    }
+
+    public boolean awaitAll(int tolerance, long timeout, TimeUnit unit) throws InterruptedException {
+        return motion.awaitAll(tolerance, timeout, unit);
+    }
+
+    // Errors, including the serial timeout, move channels to their home targets without us writing
+    // them, so the shadow no longer matches the device and the next write of every register is sent
     public void clearErrors() {
         conn.send(Request.CLEAR_ERRORS);
+        shadow.invalidate();
+    }
+
+    // Replaces the script on the device, leaving it stopped. Only the blocks the program occupies are written.
+    public void loadScript(Program program) {
+        final int length = program.getLength();
+        if (length > product.getMaxScriptLength())
+            throw new IllegalArgumentException("Script of " + length + " bytes exceeds the " + product + " limit of " + product.getMaxScriptLength());
+
+        synchronized (settingsLock) {
+            this.stopScript();
+            conn.send(Request.ERASE_SCRIPT);
+
+            final ByteBuffer block = conn.acquireBuffer(SCRIPT_BLOCK_LENGTH);
+            block.order(ByteOrder.LITTLE_ENDIAN);
+
+            try {
+                final byte[] bytes = new byte[SCRIPT_BLOCK_LENGTH];
+                for (int i = 0; i * SCRIPT_BLOCK_LENGTH < length; i++) {
+                    Arrays.fill(bytes, (byte) 0);
+                    program.getBytecode(i * SCRIPT_BLOCK_LENGTH, bytes, SCRIPT_BLOCK_LENGTH);
+
+                    block.clear();
+                    block.put(bytes);
+                    block.flip();
+
+                    conn.send(Request.WRITE_SCRIPT, 0, i, block);
+                }
+
+                final int tableBlock = product.getMaxScriptLength() / SCRIPT_BLOCK_LENGTH;
+                final int subroutines = Math.min(program.getSubroutineCount(), ScriptCompiler.MAX_TABLE_SUBROUTINES);
+
+                for (int i = 0; i * SUBROUTINES_PER_BLOCK < subroutines; i++) {
+                    block.clear();
+
+                    for (int j = 0; j < SUBROUTINES_PER_BLOCK; j++) {
+                        final int subroutine = (i * SUBROUTINES_PER_BLOCK) + j;
+                        block.putShort((short) (subroutine < subroutines ? program.getSubroutineAddress(subroutine) : Program.NO_SUBROUTINE));
+                    }
+
+                    block.flip();
+                    conn.send(Request.WRITE_SCRIPT, 0, tableBlock + i, block);
+                }
+            } finally {
+                conn.releaseBuffer(block);
+            }
+
+            // The device refuses to run a script which doesn't match its CRC
+            this.setParameter(Parameter.SCRIPT_CRC, program.getCrc());
+            this.saveParameters();
+        }
+    }
+
+    public void stopScript() {
+        conn.send(Request.SET_SCRIPT_DONE, 1, 0);
+    }
+
+    // Continues from wherever the script was stopped
+    public void resumeScript() {
+        conn.send(Request.SET_SCRIPT_DONE, 0, 0);
+
+        // The script may set any register while it runs
+        shadow.invalidate();
+    }
+
+    public void restartScript() {
+        conn.send(Request.RESTART_SCRIPT);
+        shadow.invalidate();
+    }
+
+    public void restartScriptAtSubroutine(int subroutine) {
+        this.checkSubroutine(subroutine);
+        conn.send(Request.RESTART_SCRIPT_AT_SUBROUTINE, 0, subroutine);
+        shadow.invalidate();
+    }
+
+    // The parameter is pushed on to the stack before the subroutine starts
+    public void restartScriptAtSubroutine(int subroutine, int parameter) {
+        this.checkSubroutine(subroutine);
+        conn.send(Request.RESTART_SCRIPT_AT_SUBROUTINE_WITH_PARAMETER, parameter & 0xFFFF, subroutine);
+        shadow.invalidate();
+    }
+
+    public void restartScriptAtSubroutine(Program program, String name) {
+        this.restartScriptAtSubroutine(this.getSubroutine(program, name));
+    }
+
+    public void restartScriptAtSubroutine(Program program, String name, int parameter) {
+        this.restartScriptAtSubroutine(this.getSubroutine(program, name), parameter);
+    }
+
+    private int getSubroutine(Program program, String name) {
+        final Optional<Integer> subroutine = program.getSubroutine(name);
+        if (!subroutine.isPresent())
+            throw new IllegalArgumentException("Unknown subroutine " + name);
+
+        return subroutine.get();
+    }
+
+    private void checkSubroutine(int subroutine) {
+        // Only subroutines in the table can be started by request
+        if (subroutine < 0 || subroutine >= ScriptCompiler.MAX_TABLE_SUBROUTINES)
+            throw new IllegalArgumentException("Invalid subroutine " + subroutine);
+    }
+
+    public boolean isConnected() {
+        return conn.isConnected();
+    }
+
+    // Called when the device is known to have gone, such as by a hot-plug notification, so commands
+    // are handled by the outage policy straight away rather than after a failed transfer
+    public void notifyDisconnected() {
+        conn.disconnected();
+    }
+
+    public OutagePolicy getOutagePolicy() {
+        return outagePolicy;
+    }
+
+    public void setOutagePolicy(OutagePolicy outagePolicy) {
+        this.setOutagePolicy(outagePolicy, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    // Commands are only buffered for the first maxOutage of an outage, after that they are rejected
+    public void setOutagePolicy(OutagePolicy outagePolicy, long maxOutage, TimeUnit unit) {
+        if (maxOutage < 0)
+            throw new IllegalArgumentException("Invalid maximum outage " + maxOutage);
+
+        this.maxOutage = unit.toNanos(maxOutage);
+        this.outagePolicy = outagePolicy;
+    }
+
+    private boolean isBuffering() {
+        if (conn.isConnected() || outagePolicy != OutagePolicy.BUFFER)
+            return false;
+
+        return System.nanoTime() - conn.getDisconnectedAt() <= maxOutage;
+    }
+
+    // Resumes with a new driver for the same device, after it was disconnected and has reappeared.
+    // Settings are reapplied, and the last target, speed and acceleration of every channel sent again.
+    public void reconnect(DriverBinding driver) {
+        final Optional<Product> product = Product.fromId(driver.getVendorId(), driver.getProductId());
+        if (product.orNull() != this.product || !serialNumber.equals(driver.getSerial()))
+            throw new IllegalArgumentException("Attempting to reconnect to a different device " + driver.getSerial());
+
+        synchronized (settingsLock) {
+            // A retry after a failed attempt finds the connection already swapped, so remember the outage until resumed
+            if (!conn.isConnected() && !recovering) {
+                recovering = true;
+                recoveringSince = conn.getDisconnectedAt();
+            }
+
+            // Writes made once connected but before the resume would be overwritten by the older shadow values
+            resumeLock.writeLock().lock();
+            try {
+                conn.reconnect(driver);
+
+                // Parameters live in EEPROM so normally survive, then this costs nothing
+                this.applySettings(settings);
+                this.resume(driver);
+            } catch (RuntimeException e) {
+                // Not resumed, so stay in the outage until a retry succeeds
+                conn.disconnected();
+                throw e;
+            } finally {
+                resumeLock.writeLock().unlock();
+            }
+
+            if (recovering) {
+                recovering = false;
+
+                final long recovery = System.nanoTime() - recoveringSince;
+
+                outages.incrementAndGet();
+                lastRecoveryTime = recovery;
+                maxRecoveryTime = Math.max(maxRecoveryTime, recovery);
+
+                LOG.info("Device " + serialNumber + " recovered after " + TimeUnit.NANOSECONDS.toMillis(recovery) + "ms");
+            }
+
+            this.saveParameters();
+        }
+    }
+
+    // Speeds and accelerations go before targets, so the servos resume moving as they were
+    private void resume(DriverBinding driver) {
+        final int ports = product.getPorts();
+
+        // An async driver can take the whole burst at once, otherwise send them back to back
+        if (!(driver instanceof AsyncDriverBinding)) {
+            for (int servo = 0; servo < ports; servo++) {
+                this.resume(servo, ShadowRegisters.SPEED, Request.SET_VARIABLE, servo);
+                this.resume(servo, ShadowRegisters.ACCELERATION, Request.SET_VARIABLE, servo | 0x80);
+            }
+
+            for (int servo = 0; servo < ports; servo++)
+                this.resume(servo, ShadowRegisters.TARGET, Request.SET_TARGET, servo);
+
+            return;
+        }
+
+        final List<ListenableFuture<Void>> burst = Lists.newArrayListWithCapacity(ports * 3);
+        for (int servo = 0; servo < ports; servo++) {
+            this.resumeAsync(burst, servo, ShadowRegisters.SPEED, Request.SET_VARIABLE, servo);
+            this.resumeAsync(burst, servo, ShadowRegisters.ACCELERATION, Request.SET_VARIABLE, servo | 0x80);
+        }
+
+        for (int servo = 0; servo < ports; servo++)
+            this.resumeAsync(burst, servo, ShadowRegisters.TARGET, Request.SET_TARGET, servo);
+
+        try {
+            Futures.allAsList(burst).get();
+            lastWrite = System.nanoTime();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void resume(int servo, int register, Request request, int index) {
+        final int value = shadow.get(servo, register);
+        if (value >= 0) {
+            conn.send(request, value, index);
+            lastWrite = System.nanoTime();
+        }
+    }
+
+    private void resumeAsync(List<ListenableFuture<Void>> burst, int servo, int register, Request request, int index) {
+        final int value = shadow.get(servo, register);
+        if (value >= 0)
+            burst.add(conn.sendAsync(request, value, index));
+    }
+
+    public long getOutageCount() {
+        return outages.get();
+    }
+
+    // Commands held in the shadow during outages, rather than sent
+    public long getBufferedWrites() {
+        return bufferedWrites.get();
+    }
+
+    // From the disconnect being noticed to the device being back in its previous state
+    public long getLastRecoveryTime(TimeUnit unit) {
+        return unit.convert(lastRecoveryTime, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxRecoveryTime(TimeUnit unit) {
+        return unit.convert(maxRecoveryTime, TimeUnit.NANOSECONDS);
     }
 
     public void close() {
+        poller.stop();
+
+        final CommandPort port = commandPort;
+        if (port != null)
+            port.close();
+
         conn.close();
+
+        synchronized (this) {
+            if (metricsName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+                } catch (JMException e) {
+                    LOG.warn("Unable to unregister transfer metrics MBean", e);
+                }
+
+                metricsName = null;
+            }
+        }
     }
 
     @Override
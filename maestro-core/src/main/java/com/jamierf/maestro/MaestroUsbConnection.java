@@ -1,34 +1,225 @@
 package com.jamierf.maestro;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.jamierf.maestro.api.Request;
 import com.jamierf.maestro.api.RequestType;
+import com.jamierf.maestro.binding.AsyncDriverBinding;
+import com.jamierf.maestro.binding.BufferPool;
+import com.jamierf.maestro.binding.DeviceDisconnectedException;
 import com.jamierf.maestro.binding.DriverBinding;
+import com.jamierf.maestro.metrics.MetricsListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MaestroUsbConnection implements Closeable {
 
-    private final DriverBinding driver;
+    private static final Logger LOG = LoggerFactory.getLogger(MaestroUsbConnection.class);
+
+    private static final int BUFFER_POOL_SIZE = 8;
+
+    private static final MetricsListener[] NO_LISTENERS = new MetricsListener[0];
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void notifyTransfer(MetricsListener[] listeners, Request request, int bytes, long duration) {
+        for (MetricsListener listener : listeners) {
+            try {
+                listener.onTransfer(request, bytes, duration);
+            } catch (RuntimeException e) {
+                LOG.warn("Metrics listener failed", e);
+            }
+        }
+    }
+
+    private static void notifyFailed(MetricsListener[] listeners, Request request, Throwable cause, long duration) {
+        for (MetricsListener listener : listeners) {
+            try {
+                listener.onTransferFailed(request, cause, duration);
+            } catch (RuntimeException e) {
+                LOG.warn("Metrics listener failed", e);
+            }
+        }
+    }
+
+    private static IOException incorrectLength(int expected, int actual) {
+        return new IOException(String.format("Read incorrect length (expected: %d, actual: %d) from controller", expected, actual));
+    }
+
+    private static boolean isDisconnect(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof DeviceDisconnectedException)
+                return true;
+        }
+
+        return false;
+    }
+
+    // Swapped on reconnect, while holding the transfer lock
+    private volatile DriverBinding driver;
+    private volatile BufferPool buffers;
     private final int timeout;
 
+    // System.nanoTime() when the device was found to be disconnected, only valid while disconnected
+    private volatile boolean connected = true;
+    private volatile long disconnectedAt;
+
+    // Drivers aren't required to be thread safe, so transfers go through a single lane. It is fair
+    // so that threads commanding different channels take turns rather than starving each other.
+    private final Lock transferLock = new ReentrantLock(true);
+
+    // Created on first use of an async method, after which every transfer goes through the I/O thread
+    private volatile ListeningExecutorService executor;
+    private volatile Thread ioThread;
+
+    // Copy on write, when empty transfers aren't even timed
+    private volatile MetricsListener[] listeners = NO_LISTENERS;
+
     public MaestroUsbConnection(DriverBinding driver, int timeout) {
         this.driver = driver;
         this.timeout = timeout;
+
+        buffers = new BufferPool(driver, BUFFER_POOL_SIZE);
+    }
+
+    private synchronized ListeningExecutorService getExecutor() {
+        if (executor == null) {
+            executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "maestro-io-" + driver.getSerial());
+                    thread.setDaemon(true);
+
+                    ioThread = thread;
+                    return thread;
+                }
+            }));
+        }
+
+        return executor;
+    }
+
+    // Once async mode is enabled blocking calls are queued too, so they stay ordered with async calls
+    private boolean isQueued() {
+        return executor != null && Thread.currentThread() != ioThread;
+    }
+
+    public boolean isAsync() {
+        return executor != null;
     }
 
     public String getSerialNumber() {
         return driver.getSerial();
     }
 
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getDisconnectedAt() {
+        return disconnectedAt;
+    }
+
+    // Fails every transfer fast until reconnected, rather than waiting for each to time out
+    public void disconnected() {
+        if (!connected)
+            return;
+
+        disconnectedAt = System.nanoTime();
+        connected = false;
+
+        LOG.warn("Device " + driver.getSerial() + " disconnected");
+    }
+
+    // Replaces the driver for a device which has been reattached, closing the old one
+    public void reconnect(DriverBinding driver) {
+        transferLock.lock();
+        try {
+            // Retrying with the driver already installed shouldn't close it
+            if (this.driver != driver) {
+                try {
+                    this.driver.close();
+                } catch (RuntimeException e) {
+                    LOG.debug("Unable to close disconnected driver", e);
+                }
+            }
+
+            this.driver = driver;
+            this.buffers = new BufferPool(driver, BUFFER_POOL_SIZE);
+
+            connected = true;
+        } finally {
+            transferLock.unlock();
+        }
+    }
+
     public String getFirmwareVersion() {
         final ByteBuffer payload = this.request(Request.GET_FIRMWARE_VERSION, 0x0100, 0x0000, 14);
 
-        final byte major = (byte)((payload.get(12) & 0xF) + ((payload.get(12) >> 4 & 0xF) * 10));
-        final byte minor = (byte)((payload.get(13) & 0xF) + ((payload.get(13) >> 4 & 0xF) * 10));
+        // bcdDevice is little endian, so the minor version comes first
+        final byte minor = (byte)((payload.get(12) & 0xF) + ((payload.get(12) >> 4 & 0xF) * 10));
+        final byte major = (byte)((payload.get(13) & 0xF) + ((payload.get(13) >> 4 & 0xF) * 10));
 
-        return String.format("%d.%d", major, minor);
+        this.releaseBuffer(payload);
+
+        return String.format("%d.%02d", major, minor);
+    }
+
+    public synchronized void addMetricsListener(MetricsListener listener) {
+        final MetricsListener[] listeners = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+
+        this.listeners = listeners;
+    }
+
+    public synchronized void removeMetricsListener(MetricsListener listener) {
+        final MetricsListener[] listeners = new MetricsListener[this.listeners.length];
+
+        int count = 0;
+        for (MetricsListener existing : this.listeners) {
+            if (existing != listener)
+                listeners[count++] = existing;
+        }
+
+        this.listeners = count == 0 ? NO_LISTENERS : Arrays.copyOf(listeners, count);
+    }
+
+    public ByteBuffer acquireBuffer(int length) {
+        return buffers.acquire(length);
+    }
+
+    // Returns a buffer from request() to the pool, it must not be used afterwards
+    public void releaseBuffer(ByteBuffer buffer) {
+        buffers.release(buffer);
     }
 
     public ByteBuffer request(Request request, int length) {
@@ -36,13 +227,19 @@ public class MaestroUsbConnection implements Closeable {
     }
 
     public ByteBuffer request(Request request, int value, int index, int length) {
-        final ByteBuffer buffer = driver.allocateBuffer(length);
+        return this.request(request, value, index, this.acquireBuffer(length));
+    }
+
+    public ByteBuffer request(Request request, int value, int index, ByteBuffer buffer) {
+        if (this.isQueued())
+            return MaestroUsbConnection.await(this.requestAsync(request, value, index, buffer));
+
+        final int length = buffer.remaining();
 
         try {
-            final RequestType type = request.getType();
-            final int read = driver.controlTransfer(type.getCode(), request.getCode(), value, index, buffer, timeout);
+            final int read = this.controlTransfer(request, value, index, buffer);
             if (read != length)
-                throw new IOException(String.format("Read incorrect length (expected: %d, actual: %d) from controller", length, read));
+                throw MaestroUsbConnection.incorrectLength(length, read);
 
             return buffer;
         } catch (IOException e) {
@@ -50,22 +247,173 @@ public class MaestroUsbConnection implements Closeable {
         }
     }
 
+    private int controlTransfer(Request request, int value, int index, ByteBuffer buffer) throws IOException {
+        final MetricsListener[] listeners = this.listeners;
+        if (listeners.length == 0)
+            return this.lockedTransfer(request, value, index, buffer);
+
+        final long start = System.nanoTime();
+
+        try {
+            final int read = this.lockedTransfer(request, value, index, buffer);
+            MaestroUsbConnection.notifyTransfer(listeners, request, read, System.nanoTime() - start);
+            return read;
+        } catch (IOException e) {
+            MaestroUsbConnection.notifyFailed(listeners, request, e, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private int lockedTransfer(Request request, int value, int index, ByteBuffer buffer) throws IOException {
+        final RequestType type = request.getType();
+
+        transferLock.lock();
+        try {
+            if (!connected)
+                throw new DeviceDisconnectedException("Device " + driver.getSerial() + " is disconnected.");
+
+            return driver.controlTransfer(type.getCode(), request.getCode(), value, index, buffer, timeout);
+        } catch (DeviceDisconnectedException e) {
+            this.disconnected();
+            throw e;
+        } finally {
+            transferLock.unlock();
+        }
+    }
+
+    // Drivers which support it keep many transfers in flight, rather than queueing on the I/O thread
+    private ListenableFuture<Integer> submitControlTransfer(final Request request, int value, int index, ByteBuffer buffer) {
+        final RequestType type = request.getType();
+        final int length = buffer == null ? 0 : buffer.remaining();
+
+        if (!connected)
+            return Futures.immediateFailedFuture(new DeviceDisconnectedException("Device " + driver.getSerial() + " is disconnected."));
+
+        final MetricsListener[] listeners = this.listeners;
+        final long start = listeners.length == 0 ? 0 : System.nanoTime();
+
+        final ListenableFuture<Integer> read = ((AsyncDriverBinding) driver).submitControlTransfer(type.getCode(), request.getCode(), value, index, buffer, timeout);
+
+        Futures.addCallback(read, new FutureCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer read) {
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                if (MaestroUsbConnection.isDisconnect(cause))
+                    MaestroUsbConnection.this.disconnected();
+            }
+        });
+
+        if (listeners.length > 0) {
+            Futures.addCallback(read, new FutureCallback<Integer>() {
+                @Override
+                public void onSuccess(Integer read) {
+                    MaestroUsbConnection.notifyTransfer(listeners, request, read, System.nanoTime() - start);
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    MaestroUsbConnection.notifyFailed(listeners, request, cause, System.nanoTime() - start);
+                }
+            });
+        }
+
+        return Futures.transform(read, new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer read) {
+                if (read != length)
+                    throw new RuntimeException(MaestroUsbConnection.incorrectLength(length, read));
+
+                return read;
+            }
+        });
+    }
+
+    public ListenableFuture<ByteBuffer> requestAsync(Request request, int value, int index, int length) {
+        return this.requestAsync(request, value, index, this.acquireBuffer(length));
+    }
+
+    public ListenableFuture<ByteBuffer> requestAsync(final Request request, final int value, final int index, final ByteBuffer buffer) {
+        if (driver instanceof AsyncDriverBinding) {
+            return Futures.transform(this.submitControlTransfer(request, value, index, buffer), new Function<Integer, ByteBuffer>() {
+                @Override
+                public ByteBuffer apply(Integer read) {
+                    return buffer;
+                }
+            });
+        }
+
+        return this.getExecutor().submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() {
+                return MaestroUsbConnection.this.request(request, value, index, buffer);
+            }
+        });
+    }
+
     public void send(Request request) {
         this.send(request, 0x0000, 0x0000);
     }
 
     public void send(Request request, int value, int index) {
+        if (this.isQueued()) {
+            MaestroUsbConnection.await(this.sendAsync(request, value, index));
+            return;
+        }
+
         try {
-            final RequestType type = request.getType();
-            final int read = driver.controlTransfer(type.getCode(), request.getCode(), value, index, null, timeout);
+            final int read = this.controlTransfer(request, value, index, null);
             if (read != 0)
-                throw new IOException(String.format("Read incorrect length (expected: 0, actual: %d) from controller", read));
+                throw MaestroUsbConnection.incorrectLength(0, read);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    // Sends the remaining bytes of data along with the request
+    public void send(Request request, int value, int index, ByteBuffer data) {
+        this.request(request, value, index, data);
+    }
+
+    public ListenableFuture<Void> sendAsync(final Request request, final int value, final int index) {
+        if (driver instanceof AsyncDriverBinding) {
+            return Futures.transform(this.submitControlTransfer(request, value, index, null), new Function<Integer, Void>() {
+                @Override
+                public Void apply(Integer read) {
+                    return null;
+                }
+            });
+        }
+
+        return this.getExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                MaestroUsbConnection.this.send(request, value, index);
+                return null;
+            }
+        });
+    }
+
     public void close() {
-        driver.close();
+        final ListeningExecutorService executor = this.executor;
+        if (executor != null) {
+            // Let anything already queued drain before closing the device
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        transferLock.lock();
+        try {
+            driver.close();
+        } finally {
+            transferLock.unlock();
+        }
     }
 }
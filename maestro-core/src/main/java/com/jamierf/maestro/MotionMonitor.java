@@ -0,0 +1,180 @@
+package com.jamierf.maestro;
+
+import com.google.common.base.Optional;
+import com.jamierf.maestro.api.StatusSnapshot;
+import com.jamierf.maestro.binding.CommandPort;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Waits for servos to reach their targets. Every waiting thread shares a single status read, and
+// sleeps for roughly half of the estimated time left in the move between reads. While the status
+// poller is running its snapshots are used instead, so waiting costs no transfers at all. Otherwise,
+// with a command port attached, isMoving asks the device for its moving flag, shared the same way.
+// Nothing read before the controller's last target, speed or acceleration write is ever used.
+public class MotionMonitor {
+
+    // Servos are updated every 10ms, speed and acceleration are defined in terms of it
+    private static final long TICK_LENGTH = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long MIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long MAX_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static boolean isSettled(StatusSnapshot snapshot, int servo, int tolerance) {
+        final int target = snapshot.getTarget(servo);
+
+        // A target of 0 means the channel isn't being driven, so it will never move
+        return target == 0 || Math.abs(snapshot.getPosition(servo) - target) <= tolerance;
+    }
+
+    // Estimated time until the servo arrives, in nanoseconds
+    private static long estimateRemaining(StatusSnapshot snapshot, int servo) {
+        final double distance = Math.abs(snapshot.getPosition(servo) - snapshot.getTarget(servo));
+        final int speed = snapshot.getSpeed(servo);
+        final int acceleration = snapshot.getAcceleration(servo);
+
+        double ticks = 1;
+        if (speed > 0)
+            ticks = Math.max(ticks, distance / speed);
+
+        // Acceleration is the change in speed per 80ms, the servo speeds up then slows down again
+        if (acceleration > 0)
+            ticks = Math.max(ticks, 2 * Math.sqrt(distance / (acceleration / 8D)));
+
+        return (long) (ticks * TICK_LENGTH);
+    }
+
+    private final MaestroServoController controller;
+
+    // The most recent read, shared by every waiting thread
+    private final StatusSnapshot shared;
+
+    private final ThreadLocal<StatusSnapshot> snapshots;
+
+    // The device's moving flag, only read when a command port is attached
+    private boolean moving;
+    private long movingTimestamp;
+
+    public MotionMonitor(final MaestroServoController controller) {
+        this.controller = controller;
+
+        // Nothing has been read yet, so start out as stale as possible
+        shared = new StatusSnapshot(controller.getProduct().getPorts());
+        shared.setTimestamp(controller.getLastWrite());
+        movingTimestamp = controller.getLastWrite();
+        snapshots = new ThreadLocal<StatusSnapshot>() {
+            @Override
+            protected StatusSnapshot initialValue() {
+                return new StatusSnapshot(controller.getProduct().getPorts());
+            }
+        };
+    }
+
+    // Callers queue here while one of them reads, then all reuse that read
+    private synchronized void read(long maxAge, StatusSnapshot into) {
+        final long lastWrite = controller.getLastWrite();
+
+        // The poller's latest is only good if it was read after the last write, otherwise read it ourselves
+        if (controller.getPoller().isRunning() && controller.getPoller().getLatest(into) && into.getTimestamp() - lastWrite > 0)
+            return;
+
+        if (!MotionMonitor.isFresh(shared.getTimestamp(), lastWrite, maxAge))
+            controller.getStatus(shared);
+
+        into.copyFrom(shared);
+    }
+
+    // Both read after the last write and within the maximum age
+    private static boolean isFresh(long timestamp, long lastWrite, long maxAge) {
+        return timestamp - lastWrite > 0 && System.nanoTime() - timestamp <= maxAge;
+    }
+
+    // Absent when the poller is running or there's no command port, then snapshots are cheaper or all we have
+    private synchronized Optional<Boolean> readMoving(long maxAge) {
+        final Optional<CommandPort> port = controller.getCommandPort();
+        if (!port.isPresent() || controller.getPoller().isRunning())
+            return Optional.absent();
+
+        if (!MotionMonitor.isFresh(movingTimestamp, controller.getLastWrite(), maxAge)) {
+            // Timestamped from before the read, so a write racing with it makes the flag stale
+            final long now = System.nanoTime();
+            moving = controller.readMovingState(port.get());
+            movingTimestamp = now;
+        }
+
+        return Optional.of(moving);
+    }
+
+    public boolean isMoving() {
+        final Optional<Boolean> moving = this.readMoving(MIN_INTERVAL);
+        if (moving.isPresent())
+            return moving.get();
+
+        final StatusSnapshot snapshot = snapshots.get();
+        this.read(MIN_INTERVAL, snapshot);
+
+        for (int servo = 0; servo < snapshot.getChannels(); servo++) {
+            if (!MotionMonitor.isSettled(snapshot, servo, 0))
+                return true;
+        }
+
+        return false;
+    }
+
+    public boolean isMoving(int servo) {
+        // The flag covers every servo, so only when it's set do we need to read which
+        final Optional<Boolean> moving = this.readMoving(MIN_INTERVAL);
+        if (moving.isPresent() && !moving.get())
+            return false;
+
+        final StatusSnapshot snapshot = snapshots.get();
+        this.read(MIN_INTERVAL, snapshot);
+
+        return !MotionMonitor.isSettled(snapshot, servo, 0);
+    }
+
+    // Returns false if the servo was still more than tolerance from its target when the timeout expired
+    public boolean awaitTarget(int servo, int tolerance, long timeout, TimeUnit unit) throws InterruptedException {
+        if (servo < 0 || servo >= shared.getChannels())
+            throw new IllegalArgumentException("Invalid servo " + servo);
+
+        return this.await(servo, servo + 1, tolerance, unit.toNanos(timeout));
+    }
+
+    public boolean awaitAll(int tolerance, long timeout, TimeUnit unit) throws InterruptedException {
+        return this.await(0, shared.getChannels(), tolerance, unit.toNanos(timeout));
+    }
+
+    private boolean await(int from, int to, int tolerance, long timeout) throws InterruptedException {
+        if (tolerance < 0)
+            throw new IllegalArgumentException("Invalid tolerance " + tolerance);
+
+        final StatusSnapshot snapshot = snapshots.get();
+        final long deadline = System.nanoTime() + timeout;
+
+        long interval = MIN_INTERVAL;
+        while (true) {
+            // Anything read within the last half interval is as good as reading again ourselves
+            this.read(interval / 2, snapshot);
+
+            long remaining = 0;
+            for (int servo = from; servo < to; servo++) {
+                if (!MotionMonitor.isSettled(snapshot, servo, tolerance))
+                    remaining = Math.max(remaining, MotionMonitor.estimateRemaining(snapshot, servo));
+            }
+
+            if (remaining == 0)
+                return true;
+
+            final long now = System.nanoTime();
+            if (now >= deadline)
+                return false;
+
+            interval = Math.min(Math.max(remaining / 2, MIN_INTERVAL), MAX_INTERVAL);
+            LockSupport.parkNanos(this, Math.min(interval, deadline - now));
+
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.jamierf.maestro;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// The last target, speed and acceleration sent to each channel, so writes of the same value can be
+// skipped. Threads racing to write different values to the same channel may leave the shadow
+// disagreeing with the device, as they always could leave the device with either value.
+// Errors send channels to their home targets behind our back, so the controller invalidates the
+// shadow when clearing them, and stops skipping writes while they're needed to hold off the serial timeout.
+class ShadowRegisters {
+
+    static final int TARGET = 0;
+    static final int SPEED = 1;
+    static final int ACCELERATION = 2;
+
+    private static final int REGISTERS = 3;
+    private static final int UNKNOWN = -1;
+
+    private final AtomicIntegerArray values;
+    private final AtomicLongArray suppressed;
+
+    ShadowRegisters(int channels) {
+        values = new AtomicIntegerArray(channels * REGISTERS);
+        suppressed = new AtomicLongArray(REGISTERS);
+
+        this.invalidate();
+    }
+
+    // Records the value as sent, returning false if it was already the last value sent
+    boolean update(int channel, int register, int value) {
+        return values.getAndSet((channel * REGISTERS) + register, value) != value;
+    }
+
+    void suppressed(int register, int count) {
+        suppressed.addAndGet(register, count);
+    }
+
+    // Forces the next write, used when a write fails and the device state is unknown
+    void forget(int channel, int register) {
+        values.set((channel * REGISTERS) + register, UNKNOWN);
+    }
+
+    void invalidate() {
+        for (int i = 0; i < values.length(); i++)
+            values.set(i, UNKNOWN);
+    }
+
+    // The last value sent, or -1 if unknown
+    int get(int channel, int register) {
+        return values.get((channel * REGISTERS) + register);
+    }
+
+    long getSuppressed(int register) {
+        return suppressed.get(register);
+    }
+}
@@ -0,0 +1,7 @@
+package com.jamierf.maestro;
+
+public interface StatusListener {
+
+    public void onPositionChanged(int servo, int position, long timestamp);
+    public void onTargetReached(int servo, int target, long timestamp);
+}
@@ -0,0 +1,240 @@
+package com.jamierf.maestro;
+
+import com.jamierf.maestro.api.StatusSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class StatusPoller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatusPoller.class);
+
+    private final MaestroServoController controller;
+    private final List<StatusListener> listeners;
+
+    private static final int FIELDS = 4;
+
+    // Ring of snapshots, only ever written by the polling thread. Every element is volatile, so a
+    // reader which sees any value from a newer snapshot is guaranteed to also see its claim.
+    private final AtomicIntegerArray history;
+    private final AtomicLongArray timestamps;
+    private final int capacity;
+    private final int mask;
+    private final int channels;
+
+    // The number of snapshots whose writing has started, and the number published. The newest is at sequence - 1
+    private final AtomicLong claimed;
+    private final AtomicLong sequence;
+
+    // The latest two reads, only touched by the polling thread
+    private StatusSnapshot current;
+    private StatusSnapshot previous;
+
+    // Whether each servo was at its target in the last snapshot, only touched by the polling thread
+    private final boolean[] reached;
+
+    private ScheduledExecutorService executor;
+
+    public StatusPoller(MaestroServoController controller, int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("History capacity must be a power of two, got " + capacity);
+
+        this.controller = controller;
+
+        listeners = new CopyOnWriteArrayList<StatusListener>();
+
+        final int ports = controller.getProduct().getPorts();
+
+        history = new AtomicIntegerArray(capacity * ports * FIELDS);
+        timestamps = new AtomicLongArray(capacity);
+        this.capacity = capacity;
+        mask = capacity - 1;
+        channels = ports;
+
+        claimed = new AtomicLong();
+        sequence = new AtomicLong();
+
+        current = new StatusSnapshot(ports);
+        previous = new StatusSnapshot(ports);
+        reached = new boolean[ports];
+    }
+
+    public void addListener(StatusListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StatusListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null)
+            throw new IllegalStateException("Status poller already running");
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "maestro-poller-" + controller.getSerialNumber());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                // Polls would only fail until the device is back
+                if (!controller.isConnected())
+                    return;
+
+                try {
+                    StatusPoller.this.poll();
+                } catch (RuntimeException e) {
+                    // Don't let a failed transfer cancel future polls
+                    LOG.warn("Failed to poll status", e);
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (executor == null)
+            return;
+
+        executor.shutdown();
+        executor = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    private void poll() {
+        final long next = sequence.get();
+        final StatusSnapshot snapshot = current;
+
+        controller.getStatus(snapshot);
+
+        // Claim the slot before overwriting the snapshot it holds, so readers of that one can tell
+        claimed.set(next + 1);
+        this.store((int) (next & mask), snapshot);
+        sequence.set(next + 1);
+
+        current = previous;
+        previous = snapshot;
+
+        if (next == 0) {
+            for (int servo = 0; servo < reached.length; servo++)
+                reached[servo] = snapshot.getPosition(servo) == snapshot.getTarget(servo);
+
+            return;
+        }
+
+        this.notifyListeners(current, snapshot);
+    }
+
+    private void store(int slot, StatusSnapshot snapshot) {
+        final int offset = slot * channels * FIELDS;
+
+        for (int servo = 0; servo < channels; servo++) {
+            history.set(offset + servo, snapshot.getPosition(servo));
+            history.set(offset + channels + servo, snapshot.getTarget(servo));
+            history.set(offset + (2 * channels) + servo, snapshot.getSpeed(servo));
+            history.set(offset + (3 * channels) + servo, snapshot.getAcceleration(servo));
+        }
+
+        timestamps.set(slot, snapshot.getTimestamp());
+    }
+
+    private void load(int slot, StatusSnapshot into) {
+        final int offset = slot * channels * FIELDS;
+        final int count = Math.min(channels, into.getChannels());
+
+        final int[] positions = into.getPositions();
+        final int[] targets = into.getTargets();
+        final int[] speeds = into.getSpeeds();
+        final int[] accelerations = into.getAccelerations();
+
+        for (int servo = 0; servo < count; servo++) {
+            positions[servo] = history.get(offset + servo);
+            targets[servo] = history.get(offset + channels + servo);
+            speeds[servo] = history.get(offset + (2 * channels) + servo);
+            accelerations[servo] = history.get(offset + (3 * channels) + servo);
+        }
+
+        into.setTimestamp(timestamps.get(slot));
+    }
+
+    private void notifyListeners(StatusSnapshot previous, StatusSnapshot current) {
+        final long timestamp = current.getTimestamp();
+
+        for (int servo = 0; servo < reached.length; servo++) {
+            final int position = current.getPosition(servo);
+            final int target = current.getTarget(servo);
+
+            if (position != previous.getPosition(servo)) {
+                for (StatusListener listener : listeners) {
+                    try {
+                        listener.onPositionChanged(servo, position, timestamp);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Status listener failed", e);
+                    }
+                }
+            }
+
+            final boolean atTarget = position == target;
+            if (atTarget && !reached[servo]) {
+                for (StatusListener listener : listeners) {
+                    try {
+                        listener.onTargetReached(servo, target, timestamp);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Status listener failed", e);
+                    }
+                }
+            }
+
+            reached[servo] = atTarget;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // The sequence number of the next snapshot to be published
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    public boolean getLatest(StatusSnapshot into) {
+        while (true) {
+            final long published = sequence.get();
+            if (published == 0)
+                return false;
+
+            if (this.get(published - 1, into))
+                return true;
+        }
+    }
+
+    // Copies the snapshot with the given sequence number, false if it isn't available (yet or anymore)
+    public boolean get(long index, StatusSnapshot into) {
+        if (index < 0 || index >= sequence.get())
+            return false;
+
+        this.load((int) (index & mask), into);
+
+        // The writer may have lapped us while copying, in which case the copy can't be trusted. Any
+        // newer value we read was written after the claim of the snapshot replacing this one.
+        return claimed.get() - index <= capacity;
+    }
+}
@@ -0,0 +1,142 @@
+package com.jamierf.maestro;
+
+import com.jamierf.maestro.settings.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TargetCoalescer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TargetCoalescer.class);
+
+    private static final int CLEAN = -1;
+
+    private static long getFramePeriod(Settings settings) {
+        // Despite the name this is the time between pulses on a channel, in microseconds
+        return (long) Settings.periodToFrequency(settings.getServoPeriod(), settings.getServosAvailable());
+    }
+
+    private final MaestroServoController controller;
+    private final AtomicIntegerArray pending;
+    private final ScheduledExecutorService executor;
+
+    // Only touched while flushing
+    private final int[] frame;
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+
+    public TargetCoalescer(MaestroServoController controller) {
+        this (controller, TargetCoalescer.getFramePeriod(controller.getSettings()), TimeUnit.MICROSECONDS);
+    }
+
+    public TargetCoalescer(final MaestroServoController controller, long period, TimeUnit unit) {
+        this.controller = controller;
+
+        final int ports = controller.getProduct().getPorts();
+
+        pending = new AtomicIntegerArray(ports);
+        for (int servo = 0; servo < ports; servo++)
+            pending.set(servo, CLEAN);
+
+        frame = new int[ports];
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "maestro-coalescer-" + controller.getSerialNumber());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TargetCoalescer.this.flush();
+                } catch (RuntimeException e) {
+                    // Don't let a failed transfer cancel future flushes
+                    LOG.warn("Failed to flush targets", e);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    public void setTarget(int servo, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Invalid target " + value);
+
+        // The newest value always wins, if we replaced one it will never be sent
+        if (pending.getAndSet(servo, value) != CLEAN)
+            coalesced.incrementAndGet();
+    }
+
+    public synchronized void flush() {
+        int first = 0;
+        int count = 0;
+
+        for (int servo = 0; servo < frame.length; servo++) {
+            final int value = pending.getAndSet(servo, CLEAN);
+            if (value == CLEAN) {
+                if (count > 0) {
+                    this.send(first, count);
+                    count = 0;
+                }
+
+                continue;
+            }
+
+            if (count == 0)
+                first = servo;
+
+            frame[count++] = value;
+        }
+
+        if (count > 0)
+            this.send(first, count);
+    }
+
+    private void send(int first, int count) {
+        try {
+            controller.setTargets(first, frame, 0, count);
+        } catch (RuntimeException e) {
+            // Put the run back for the next flush, unless a newer target has arrived since
+            for (int i = 0; i < count; i++)
+                pending.compareAndSet(first + i, CLEAN, frame[i]);
+
+            throw e;
+        }
+
+        flushed.addAndGet(count);
+    }
+
+    // The number of targets dropped because a newer one arrived before they were flushed
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getFlushedCount() {
+        return flushed.get();
+    }
+
+    public void close() {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Send anything still pending
+        this.flush();
+    }
+}
@@ -0,0 +1,108 @@
+package com.jamierf.maestro.animation;
+
+import com.jamierf.maestro.playback.FrameSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+// A memory mapped animation file, frames are read straight from the page cache as they're played.
+// The mapping is released once the animation is garbage collected
+public class Animation implements FrameSource {
+
+    public static Animation open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            final long length = raf.length();
+            if (length < AnimationFormat.HEADER_LENGTH)
+                throw new IOException("Animation file " + file + " too short");
+
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Animation file " + file + " too large to map");
+
+            final MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(AnimationFormat.ORDER);
+
+            return new Animation(file, map);
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    private final int firstChannel;
+    private final int channelCount;
+    private final int frameCount;
+    private final long framePeriod;
+
+    private final ShortBuffer targets;
+
+    private Animation(File file, ByteBuffer map) throws IOException {
+        if (map.getInt(0) != AnimationFormat.MAGIC)
+            throw new IOException(file + " is not an animation file");
+
+        final int version = map.getShort(4) & 0xFFFF;
+        if (version != AnimationFormat.VERSION)
+            throw new IOException("Unsupported animation version " + version);
+
+        firstChannel = map.getShort(6) & 0xFFFF;
+        channelCount = map.getShort(8) & 0xFFFF;
+        framePeriod = map.getLong(12);
+        frameCount = map.getInt(AnimationFormat.FRAME_COUNT_OFFSET);
+
+        if (channelCount < 1 || framePeriod <= 0 || frameCount < 0)
+            throw new IOException("Corrupt animation header in " + file);
+
+        final long expected = AnimationFormat.HEADER_LENGTH + (long) frameCount * channelCount * 2;
+        if (map.capacity() < expected)
+            throw new IOException("Animation file " + file + " truncated, expected " + expected + " bytes but found " + map.capacity());
+
+        map.position(AnimationFormat.HEADER_LENGTH);
+        targets = map.slice().order(AnimationFormat.ORDER).asShortBuffer();
+    }
+
+    @Override
+    public int getFirstChannel() {
+        return firstChannel;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public long getFramePeriod() {
+        return framePeriod;
+    }
+
+    @Override
+    public void getFrame(int frame, int[] into) {
+        if (frame < 0 || frame >= frameCount)
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+
+        final int offset = frame * channelCount;
+        for (int i = 0; i < channelCount; i++)
+            into[i] = targets.get(offset + i) & 0xFFFF;
+    }
+
+    @Override
+    public String toString() {
+        return "Animation{" +
+                "firstChannel=" + firstChannel +
+                ", channelCount=" + channelCount +
+                ", frameCount=" + frameCount +
+                ", framePeriod=" + framePeriod +
+                '}';
+    }
+}
@@ -0,0 +1,20 @@
+package com.jamierf.maestro.animation;
+
+import java.nio.ByteOrder;
+
+// Header followed by frame count * channel count unsigned 16 bit quarter-microsecond targets, frame major
+final class AnimationFormat {
+
+    static final int MAGIC = 0x4D414E49; // "MANI"
+    static final int VERSION = 1;
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // magic (4), version (2), first channel (2), channel count (2), reserved (2), frame period in ns (8), frame count (4)
+    static final int HEADER_LENGTH = 24;
+    static final int FRAME_COUNT_OFFSET = 20;
+
+    static final int MAX_TARGET = 0xFFFF;
+
+    private AnimationFormat() { }
+}
@@ -0,0 +1,122 @@
+package com.jamierf.maestro.animation;
+
+import com.jamierf.maestro.playback.FrameSource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+// Writes an animation a frame at a time, so it never has to be held in memory
+public class AnimationWriter implements Closeable {
+
+    // Compiles any frame source, such as a trajectory, in to an animation file
+    public static void write(File file, FrameSource source) throws IOException {
+        final AnimationWriter writer = new AnimationWriter(file, source.getFirstChannel(), source.getChannelCount(), source.getFramePeriod(), TimeUnit.NANOSECONDS);
+
+        try {
+            final int[] frame = new int[source.getChannelCount()];
+            for (int i = 0; i < source.getFrameCount(); i++) {
+                source.getFrame(i, frame);
+                writer.writeFrame(frame);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int channelCount;
+
+    // Frames are staged here and written in large blocks
+    private final ByteBuffer buffer;
+
+    private int frameCount;
+    private boolean closed;
+
+    public AnimationWriter(File file, int firstChannel, int channelCount, long framePeriod, TimeUnit unit) throws IOException {
+        if (firstChannel < 0 || channelCount < 1 || firstChannel + channelCount > 0xFFFF)
+            throw new IllegalArgumentException("Invalid channels " + firstChannel + " to " + (firstChannel + channelCount - 1));
+
+        if (framePeriod <= 0)
+            throw new IllegalArgumentException("Invalid frame period " + framePeriod);
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+
+        channel = this.file.getChannel();
+        this.channelCount = channelCount;
+
+        buffer = ByteBuffer.allocate(Math.max(AnimationFormat.HEADER_LENGTH, channelCount * 2) * 256);
+        buffer.order(AnimationFormat.ORDER);
+
+        buffer.putInt(AnimationFormat.MAGIC);
+        buffer.putShort((short) AnimationFormat.VERSION);
+        buffer.putShort((short) firstChannel);
+        buffer.putShort((short) channelCount);
+        buffer.putShort((short) 0);
+        buffer.putLong(unit.toNanos(framePeriod));
+        buffer.putInt(0); // Frame count, filled in on close
+    }
+
+    // Targets in quarter-microseconds, one per channel
+    public void writeFrame(int[] targets) throws IOException {
+        this.writeFrame(targets, 0);
+    }
+
+    public void writeFrame(int[] targets, int offset) throws IOException {
+        if (closed)
+            throw new IllegalStateException("Writer closed");
+
+        if (offset < 0 || offset + channelCount > targets.length)
+            throw new IllegalArgumentException("Frame needs " + channelCount + " targets from offset " + offset);
+
+        // Check the whole frame first, a partly written frame would shift every frame after it
+        for (int i = 0; i < channelCount; i++) {
+            final int target = targets[offset + i];
+            if (target < 0 || target > AnimationFormat.MAX_TARGET)
+                throw new IllegalArgumentException("Invalid target " + target);
+        }
+
+        if (buffer.remaining() < channelCount * 2)
+            this.flush();
+
+        for (int i = 0; i < channelCount; i++)
+            buffer.putShort((short) targets[offset + i]);
+
+        frameCount++;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+
+        buffer.clear();
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+
+        try {
+            this.flush();
+
+            final ByteBuffer count = ByteBuffer.allocate(4).order(AnimationFormat.ORDER);
+            count.putInt(0, frameCount);
+            channel.write(count, AnimationFormat.FRAME_COUNT_OFFSET);
+        } finally {
+            file.close();
+        }
+    }
+}
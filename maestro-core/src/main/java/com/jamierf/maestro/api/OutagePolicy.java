@@ -0,0 +1,9 @@
+package com.jamierf.maestro.api;
+
+// What happens to commands sent while the device is disconnected
+public enum OutagePolicy {
+    // Fail immediately, without waiting for a transfer to time out
+    REJECT,
+    // Remember the latest target, speed and acceleration of each channel and send them on reconnect
+    BUFFER;
+}
@@ -23,6 +23,7 @@ public enum Parameter {
     IO_MASK_C(16, Range.u8),                                // 1 byte - pins used for I/O instead of servo
     OUTPUT_MASK_C(17, Range.u8),                            // 1 byte - outputs that are enabled
 
+    SCRIPT_CRC(22, Range.u16),                              // 2 byte CRC of the script bytecode
     SCRIPT_DONE(24, Range.b),                               // 1 byte - copied to scriptDone on startup
 
     SERVO_HOME(30, new Range(2, 0, 32440)),                 // 2 byte home position (0=off; 1=ignore)
@@ -16,7 +16,16 @@ public enum Request {
 
     GET_STACK(0x88, RequestType.BLA), // 136
     GET_CALL_STACK(0x89, RequestType.BLA), // 139
-    SET_PWM(0x8A, RequestType.SET); // 140
+    SET_PWM(0x8A, RequestType.SET), // 140
+
+    REINITIALIZE(0x90, RequestType.SET), // 144
+
+    ERASE_SCRIPT(0xA0, RequestType.SET), // 160
+    WRITE_SCRIPT(0xA1, RequestType.SET), // 161
+    SET_SCRIPT_DONE(0xA2, RequestType.SET), // 162
+    RESTART_SCRIPT_AT_SUBROUTINE(0xA3, RequestType.SET), // 163
+    RESTART_SCRIPT_AT_SUBROUTINE_WITH_PARAMETER(0xA4, RequestType.SET), // 164
+    RESTART_SCRIPT(0xA5, RequestType.SET); // 165
 
     private final int code;
     private final RequestType type;
@@ -0,0 +1,109 @@
+package com.jamierf.maestro.api;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class StatusSnapshot {
+
+    private final int[] positions;
+    private final int[] targets;
+    private final int[] speeds;
+    private final int[] accelerations;
+
+    private long timestamp;
+
+    public StatusSnapshot(int channels) {
+        this (new int[channels], new int[channels], new int[channels], new int[channels]);
+    }
+
+    public StatusSnapshot(int[] positions, int[] targets, int[] speeds, int[] accelerations) {
+        if (targets.length != positions.length || speeds.length != positions.length || accelerations.length != positions.length)
+            throw new IllegalArgumentException("Status arrays must all be the same length");
+
+        this.positions = positions;
+        this.targets = targets;
+        this.speeds = speeds;
+        this.accelerations = accelerations;
+    }
+
+    // Decodes count consecutive channel statuses, in the same layout as Status.decode(ByteBuffer)
+    public void decode(ByteBuffer payload, int firstChannel, int count) {
+        for (int servo = firstChannel; servo < firstChannel + count; servo++) {
+            positions[servo] = payload.getShort() & 0xFFFF;
+            targets[servo] = payload.getShort() & 0xFFFF;
+            speeds[servo] = payload.getShort() & 0xFFFF;
+            accelerations[servo] = payload.get() & 0xFF;
+        }
+    }
+
+    public void copyFrom(StatusSnapshot other) {
+        final int channels = Math.min(this.getChannels(), other.getChannels());
+
+        System.arraycopy(other.positions, 0, positions, 0, channels);
+        System.arraycopy(other.targets, 0, targets, 0, channels);
+        System.arraycopy(other.speeds, 0, speeds, 0, channels);
+        System.arraycopy(other.accelerations, 0, accelerations, 0, channels);
+
+        timestamp = other.timestamp;
+    }
+
+    public int getChannels() {
+        return positions.length;
+    }
+
+    // System.nanoTime() at which the snapshot was read
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public int getPosition(int servo) {
+        return positions[servo];
+    }
+
+    public int getTarget(int servo) {
+        return targets[servo];
+    }
+
+    public int getSpeed(int servo) {
+        return speeds[servo];
+    }
+
+    public int getAcceleration(int servo) {
+        return accelerations[servo];
+    }
+
+    public int[] getPositions() {
+        return positions;
+    }
+
+    public int[] getTargets() {
+        return targets;
+    }
+
+    public int[] getSpeeds() {
+        return speeds;
+    }
+
+    public int[] getAccelerations() {
+        return accelerations;
+    }
+
+    public Status getStatus(int servo) {
+        return new Status(positions[servo], targets[servo], speeds[servo], accelerations[servo]);
+    }
+
+    @Override
+    public String toString() {
+        return "StatusSnapshot{" +
+                "timestamp=" + timestamp +
+                ", positions=" + Arrays.toString(positions) +
+                ", targets=" + Arrays.toString(targets) +
+                ", speeds=" + Arrays.toString(speeds) +
+                ", accelerations=" + Arrays.toString(accelerations) +
+                '}';
+    }
+}
@@ -0,0 +1,12 @@
+package com.jamierf.maestro.binding;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+
+// A driver able to keep multiple transfers in flight without blocking a thread for each
+public interface AsyncDriverBinding extends DriverBinding {
+
+    // Completes with the number of bytes transferred, or fails with an IOException
+    public ListenableFuture<Integer> submitControlTransfer(int requestType, int request, int value, int index, ByteBuffer buffer, int timeout);
+}
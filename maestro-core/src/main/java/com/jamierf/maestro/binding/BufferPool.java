@@ -0,0 +1,43 @@
+package com.jamierf.maestro.binding;
+
+import java.nio.ByteBuffer;
+
+public class BufferPool {
+
+    private final DriverBinding driver;
+
+    // Released buffers, keyed by their capacity when searched
+    private final ByteBuffer[] free;
+
+    public BufferPool(DriverBinding driver, int capacity) {
+        this.driver = driver;
+
+        free = new ByteBuffer[capacity];
+    }
+
+    public synchronized ByteBuffer acquire(int length) {
+        for (int i = 0; i < free.length; i++) {
+            final ByteBuffer buffer = free[i];
+            if (buffer == null || buffer.capacity() != length)
+                continue;
+
+            free[i] = null;
+
+            buffer.clear();
+            return buffer;
+        }
+
+        return driver.allocateBuffer(length);
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        for (int i = 0; i < free.length; i++) {
+            if (free[i] == null) {
+                free[i] = buffer;
+                return;
+            }
+        }
+
+        // The pool is full, leave it for the garbage collector
+    }
+}
@@ -0,0 +1,17 @@
+package com.jamierf.maestro.binding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// The Maestro's virtual serial command port, which accepts compact protocol byte streams
+public interface CommandPort {
+
+    // Writes everything remaining in the buffer
+    public void write(ByteBuffer buffer) throws IOException;
+
+    // Reads until the buffer is full, failing if that takes longer than the timeout (in milliseconds)
+    public void read(ByteBuffer buffer, int timeout) throws IOException;
+
+    public void close();
+
+}
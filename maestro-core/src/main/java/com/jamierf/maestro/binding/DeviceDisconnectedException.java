@@ -0,0 +1,13 @@
+package com.jamierf.maestro.binding;
+
+import java.io.IOException;
+
+// Thrown by drivers when the device has gone away, such as after a brown out or a hub reset
+public class DeviceDisconnectedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeviceDisconnectedException(String message) {
+        super(message);
+    }
+}
@@ -5,12 +5,14 @@ import java.nio.ByteBuffer;
 
 public interface DriverBinding {
 
+    // Buffers are pooled and reused by the connection (see BufferPool), so this isn't on the hot path
     public ByteBuffer allocateBuffer(int length);
 
     public int getVendorId();
     public int getProductId();
     public String getSerial();
 
+    // A null buffer indicates a zero length transfer, implementations shouldn't allocate for it
     public int controlTransfer(int requestType, int request, int value, int index, ByteBuffer buffer, int timeout) throws IOException;
 
     public void close();
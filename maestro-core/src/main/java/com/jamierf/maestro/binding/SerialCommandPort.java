@@ -0,0 +1,93 @@
+package com.jamierf.maestro.binding;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// A command port exposed as a tty device (e.g. /dev/ttyACM0), or a pty standing in for one. The
+// tty must be in raw mode (e.g. stty -F /dev/ttyACM0 raw -echo) so bytes pass through unmodified.
+public class SerialCommandPort implements CommandPort {
+
+    // A reply normally follows within a few hundred microseconds, so poll quickly at first and back off
+    // while nothing arrives, rather than spinning for the whole timeout
+    private static final long MIN_READ_POLL_INTERVAL = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_READ_POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final File device;
+    private final FileInputStream in;
+    private final FileOutputStream out;
+    private final FileChannel input;
+    private final FileChannel output;
+
+    public SerialCommandPort(File device) throws IOException {
+        this.device = device;
+
+        in = new FileInputStream(device);
+        out = new FileOutputStream(device);
+
+        input = in.getChannel();
+        output = out.getChannel();
+    }
+
+    public File getDevice() {
+        return device;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            output.write(buffer);
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, int timeout) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long interval = MIN_READ_POLL_INTERVAL;
+
+        while (buffer.hasRemaining()) {
+            // Only read what is available, a blocking read on a tty can't be timed out
+            final int available = in.available();
+            if (available > 0) {
+                final int limit = buffer.limit();
+                buffer.limit(Math.min(limit, buffer.position() + available));
+
+                try {
+                    if (input.read(buffer) < 0)
+                        throw new IOException("Command port " + device + " closed.");
+                } finally {
+                    buffer.limit(limit);
+                }
+
+                interval = MIN_READ_POLL_INTERVAL;
+                continue;
+            }
+
+            final long remaining = deadline - System.nanoTime();
+            if (remaining < 0)
+                throw new IOException("Command port " + device + " timed out.");
+
+            LockSupport.parkNanos(Math.min(interval, remaining));
+            interval = Math.min(interval * 2, MAX_READ_POLL_INTERVAL);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing useful we can do, the device is going away anyway
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // As above
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.jamierf.maestro.binding;
+
+import java.io.IOException;
+
+// Thrown by drivers when the device doesn't complete a transfer within its timeout
+public class TransferTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TransferTimeoutException(String message) {
+        super(message);
+    }
+}
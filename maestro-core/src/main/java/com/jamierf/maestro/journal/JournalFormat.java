@@ -0,0 +1,57 @@
+package com.jamierf.maestro.journal;
+
+import com.jamierf.maestro.binding.DeviceDisconnectedException;
+import com.jamierf.maestro.binding.TransferTimeoutException;
+
+import java.nio.ByteOrder;
+
+// Header followed by fixed length records, one per transfer. The data sent by a transfer follows
+// its record, padded out to a whole number of records.
+final class JournalFormat {
+
+    static final int MAGIC = 0x4D4A524E; // "MJRN"
+    static final int VERSION = 1;
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // magic (4), version (2), record length (2), start time in ms since the epoch (8), record count (8), reserved (8)
+    static final int HEADER_LENGTH = 32;
+    static final int START_TIME_OFFSET = 8;
+    static final int RECORD_COUNT_OFFSET = 16;
+
+    // timestamp in ns since the start (8), latency in ns (4), result (4), request type (1),
+    // request (1), value (2), index (2), length (2), reserved (8)
+    static final int RECORD_LENGTH = 32;
+    static final int TIMESTAMP_OFFSET = 0;
+    static final int LATENCY_OFFSET = 8;
+    static final int RESULT_OFFSET = 12;
+    static final int REQUEST_TYPE_OFFSET = 16;
+    static final int REQUEST_OFFSET = 17;
+    static final int VALUE_OFFSET = 18;
+    static final int INDEX_OFFSET = 20;
+    static final int LENGTH_OFFSET = 22;
+
+    // Set in the request type of transfers reading from the device
+    static final int DIRECTION_IN = 0x80;
+
+    static boolean hasData(int requestType, int length) {
+        return length > 0 && (requestType & DIRECTION_IN) == 0;
+    }
+
+    // Records taken by the data following a record
+    static int getDataRecords(int length) {
+        return (length + RECORD_LENGTH - 1) / RECORD_LENGTH;
+    }
+
+    static int toResult(Throwable cause) {
+        if (cause instanceof TransferTimeoutException)
+            return JournalRecord.TIMEOUT;
+
+        if (cause instanceof DeviceDisconnectedException)
+            return JournalRecord.DISCONNECTED;
+
+        return JournalRecord.ERROR;
+    }
+
+    private JournalFormat() { }
+}
@@ -0,0 +1,131 @@
+package com.jamierf.maestro.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads a journal's records in order, straight from a memory mapping of the file. A journal still
+// being written can be read up to the last record reserved when it was opened.
+public class JournalReader {
+
+    // A single mapping is limited to 2GB, so larger journals are mapped as several regions. Each overlaps
+    // the next by the longest record, so any record starting in a region can be read from it alone.
+    private static final long REGION_LENGTH = 1L << 30;
+    private static final long REGION_OVERLAP = JournalFormat.RECORD_LENGTH * (1 + JournalFormat.getDataRecords(0xFFFF));
+
+    public static JournalReader open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            final long length = raf.length();
+            if (length < JournalFormat.HEADER_LENGTH)
+                throw new IOException("Journal file " + file + " too short");
+
+            final ByteBuffer[] regions = new ByteBuffer[(int) ((length - 1) / REGION_LENGTH) + 1];
+            for (int i = 0; i < regions.length; i++) {
+                final long offset = i * REGION_LENGTH;
+
+                final MappedByteBuffer region = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, Math.min(REGION_LENGTH + REGION_OVERLAP, length - offset));
+                region.order(JournalFormat.ORDER);
+
+                regions[i] = region;
+            }
+
+            return new JournalReader(file, regions, length);
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    private final ByteBuffer[] regions;
+    private final long length;
+    private final long startTime;
+    private final long recordCount;
+
+    private long position;
+    private long read;
+
+    private JournalReader(File file, ByteBuffer[] regions, long length) throws IOException {
+        final ByteBuffer map = regions[0];
+
+        if (map.getInt(0) != JournalFormat.MAGIC)
+            throw new IOException(file + " is not a journal file");
+
+        final int version = map.getShort(4) & 0xFFFF;
+        if (version != JournalFormat.VERSION)
+            throw new IOException("Unsupported journal version " + version);
+
+        final int recordLength = map.getShort(6) & 0xFFFF;
+        if (recordLength != JournalFormat.RECORD_LENGTH)
+            throw new IOException("Corrupt journal header in " + file);
+
+        this.regions = regions;
+        this.length = length;
+
+        startTime = map.getLong(JournalFormat.START_TIME_OFFSET);
+        recordCount = map.getLong(JournalFormat.RECORD_COUNT_OFFSET);
+
+        this.rewind();
+    }
+
+    // In milliseconds since the epoch
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public void rewind() {
+        position = JournalFormat.HEADER_LENGTH;
+        read = 0;
+    }
+
+    // Returns false once every record has been read
+    public boolean next(JournalRecord record) throws IOException {
+        if (read >= recordCount)
+            return false;
+
+        if (position + JournalFormat.RECORD_LENGTH > length)
+            throw new IOException("Journal truncated after " + read + " of " + recordCount + " records");
+
+        final int region = (int) (position / REGION_LENGTH);
+        final ByteBuffer map = regions[region];
+        int offset = (int) (position - (region * REGION_LENGTH));
+
+        record.timestamp = map.getLong(offset + JournalFormat.TIMESTAMP_OFFSET);
+        record.latency = map.getInt(offset + JournalFormat.LATENCY_OFFSET) & 0xFFFFFFFFL;
+        record.result = map.getInt(offset + JournalFormat.RESULT_OFFSET);
+        record.requestType = map.get(offset + JournalFormat.REQUEST_TYPE_OFFSET) & 0xFF;
+        record.request = map.get(offset + JournalFormat.REQUEST_OFFSET) & 0xFF;
+        record.value = map.getShort(offset + JournalFormat.VALUE_OFFSET) & 0xFFFF;
+        record.index = map.getShort(offset + JournalFormat.INDEX_OFFSET) & 0xFFFF;
+        record.length = map.getShort(offset + JournalFormat.LENGTH_OFFSET) & 0xFFFF;
+
+        offset += JournalFormat.RECORD_LENGTH;
+
+        final ByteBuffer data = map.duplicate();
+        int end = offset;
+        if (JournalFormat.hasData(record.requestType, record.length)) {
+            end += JournalFormat.getDataRecords(record.length) * JournalFormat.RECORD_LENGTH;
+            if (end > map.capacity())
+                throw new IOException("Journal truncated after " + read + " of " + recordCount + " records");
+
+            data.limit(offset + record.length).position(offset);
+        }
+        else {
+            data.limit(offset).position(offset);
+        }
+
+        record.data = data.slice();
+        position = (region * REGION_LENGTH) + end;
+        read++;
+
+        return true;
+    }
+}
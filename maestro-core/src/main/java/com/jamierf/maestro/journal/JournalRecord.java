@@ -0,0 +1,94 @@
+package com.jamierf.maestro.journal;
+
+import com.google.common.base.Optional;
+import com.jamierf.maestro.api.Request;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// A single journaled transfer, reused by the reader for every record
+public class JournalRecord {
+
+    // Results of failed transfers, successful ones record the number of bytes transferred
+    public static final int ERROR = -1;
+    public static final int TIMEOUT = -2;
+    public static final int DISCONNECTED = -3;
+
+    private static final Request[] REQUESTS = Request.values();
+
+    long timestamp;
+    long latency;
+    int result;
+    int requestType;
+    int request;
+    int value;
+    int index;
+    int length;
+    ByteBuffer data;
+
+    // Since the journal was started
+    public long getTimestamp(TimeUnit unit) {
+        return unit.convert(timestamp, TimeUnit.NANOSECONDS);
+    }
+
+    public long getLatency(TimeUnit unit) {
+        return unit.convert(latency, TimeUnit.NANOSECONDS);
+    }
+
+    public int getResult() {
+        return result;
+    }
+
+    public boolean isFailed() {
+        return result < 0;
+    }
+
+    public int getRequestType() {
+        return requestType;
+    }
+
+    public int getRequestCode() {
+        return request;
+    }
+
+    // Absent for requests this version doesn't know about
+    public Optional<Request> getRequest() {
+        for (Request candidate : REQUESTS) {
+            if (candidate.getCode() == request && candidate.getType().getCode() == requestType)
+                return Optional.of(candidate);
+        }
+
+        return Optional.absent();
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    // The length of the buffer given to the transfer
+    public int getLength() {
+        return length;
+    }
+
+    // The data sent to the device, empty for transfers reading from it. Only valid until the next record is read.
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" +
+                "timestamp=" + timestamp +
+                ", latency=" + latency +
+                ", request=" + (this.getRequest().isPresent() ? this.getRequest().get() : requestType + "/" + request) +
+                ", value=" + value +
+                ", index=" + index +
+                ", length=" + length +
+                ", result=" + result +
+                '}';
+    }
+}
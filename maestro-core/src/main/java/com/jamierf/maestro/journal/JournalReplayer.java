@@ -0,0 +1,109 @@
+package com.jamierf.maestro.journal;
+
+import com.jamierf.maestro.binding.DriverBinding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Sends the transfers in a journal to a driver, keeping their original spacing divided by a speed
+// factor. Failures are counted rather than stopping the replay, to load test against real traffic.
+public class JournalReplayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalReplayer.class);
+
+    // Matches the timeout used by the controller
+    private static final int REQUEST_TIMEOUT = 5000;
+
+    private final DriverBinding driver;
+    private final double speed;
+
+    // Grown to the longest transfer seen, only touched by the replaying thread
+    private ByteBuffer buffer;
+
+    public JournalReplayer(DriverBinding driver) {
+        this (driver, 1);
+    }
+
+    // A speed of 2 replays twice as fast, Double.POSITIVE_INFINITY replays without any delays
+    public JournalReplayer(DriverBinding driver, double speed) {
+        if (!(speed > 0))
+            throw new IllegalArgumentException("Invalid speed " + speed);
+
+        this.driver = driver;
+        this.speed = speed;
+    }
+
+    // Replays every record on the calling thread, returning early if interrupted
+    public ReplayStatistics replay(JournalReader journal) throws IOException {
+        final ReplayStatistics statistics = new ReplayStatistics();
+        final JournalRecord record = new JournalRecord();
+
+        final long start = System.nanoTime();
+        long first = -1;
+
+        while (journal.next(record)) {
+            final long timestamp = record.getTimestamp(TimeUnit.NANOSECONDS);
+            if (first < 0)
+                first = timestamp;
+
+            // Deadlines are absolute, so time spent in slow transfers isn't added to every later one
+            long lateness = 0;
+            if (!Double.isInfinite(speed)) {
+                final long deadline = start + (long) ((timestamp - first) / speed);
+
+                long remaining = deadline - System.nanoTime();
+                while (remaining > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                    if (Thread.currentThread().isInterrupted())
+                        return statistics;
+
+                    remaining = deadline - System.nanoTime();
+                }
+
+                lateness = -remaining;
+            }
+
+            if (Thread.currentThread().isInterrupted())
+                return statistics;
+
+            int result;
+            try {
+                result = driver.controlTransfer(record.getRequestType(), record.getRequestCode(), record.getValue(), record.getIndex(), this.getBuffer(record), REQUEST_TIMEOUT);
+            } catch (IOException e) {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Replayed transfer failed: " + record, e);
+
+                result = JournalFormat.toResult(e);
+            }
+
+            statistics.recordReplayed(lateness, result < 0, result != record.getResult());
+        }
+
+        return statistics;
+    }
+
+    private ByteBuffer getBuffer(JournalRecord record) {
+        final int length = record.getLength();
+        if (length == 0)
+            return null;
+
+        if (buffer == null || buffer.capacity() < length)
+            buffer = driver.allocateBuffer(length);
+
+        buffer.clear();
+        buffer.limit(length);
+
+        // Transfers to the device send what was originally sent, reads just need the space
+        final ByteBuffer data = record.getData();
+        if (data.hasRemaining()) {
+            buffer.put(data);
+            buffer.flip();
+        }
+
+        return buffer;
+    }
+}
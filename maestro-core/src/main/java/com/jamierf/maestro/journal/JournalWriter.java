@@ -0,0 +1,186 @@
+package com.jamierf.maestro.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Appends transfer records to a memory mapped file, so recording one is a handful of stores in to
+// the page cache. A record is reserved when its transfer starts and completed with the result when
+// it finishes, so records stay in the order transfers were started even when they complete out of
+// order. The record count in the header is updated after every reservation, so a journal is readable
+// even if the process dies, transfers still in flight at the time read as failed.
+public class JournalWriter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalWriter.class);
+
+    // The file is mapped, and grown, a region at a time. A multiple of the record length, so no record straddles two.
+    private static final int REGION_LENGTH = 1 << 20;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+
+    // System.nanoTime() when the journal was started, timestamps are relative to it
+    private final long start;
+
+    private MappedByteBuffer region;
+    private long regionOffset;
+
+    // The file offset of the next record
+    private long position;
+    private long records;
+
+    private boolean closed;
+
+    public JournalWriter(File path) throws IOException {
+        this.path = path;
+
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+
+        channel = file.getChannel();
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, JournalFormat.HEADER_LENGTH);
+        header.order(JournalFormat.ORDER);
+
+        header.putInt(0, JournalFormat.MAGIC);
+        header.putShort(4, (short) JournalFormat.VERSION);
+        header.putShort(6, (short) JournalFormat.RECORD_LENGTH);
+        header.putLong(JournalFormat.START_TIME_OFFSET, System.currentTimeMillis());
+        header.putLong(JournalFormat.RECORD_COUNT_OFFSET, 0);
+
+        start = System.nanoTime();
+
+        position = JournalFormat.HEADER_LENGTH;
+        this.map(position);
+    }
+
+    private void map(long offset) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, offset, REGION_LENGTH);
+        region.order(JournalFormat.ORDER);
+        regionOffset = offset;
+    }
+
+    // The offset in to the current region of the next record, mapping the next region when this one is full
+    private int nextRecord() throws IOException {
+        if (position + JournalFormat.RECORD_LENGTH > regionOffset + REGION_LENGTH)
+            this.map(position);
+
+        final int offset = (int) (position - regionOffset);
+        position += JournalFormat.RECORD_LENGTH;
+
+        return offset;
+    }
+
+    // Called as a transfer starts, returning the position to complete once it finishes, or -1 if not
+    // journaling. Data is only recorded for transfers to the device, from its position onwards.
+    public synchronized long reserve(int requestType, int request, int value, int index, int length, ByteBuffer data) {
+        if (closed)
+            return -1;
+
+        try {
+            final int offset = this.nextRecord();
+            final long reserved = regionOffset + offset;
+
+            // Taken under the lock, so timestamps never go backwards through the file
+            region.putLong(offset + JournalFormat.TIMESTAMP_OFFSET, System.nanoTime() - start);
+            region.putInt(offset + JournalFormat.RESULT_OFFSET, JournalRecord.ERROR);
+            region.put(offset + JournalFormat.REQUEST_TYPE_OFFSET, (byte) requestType);
+            region.put(offset + JournalFormat.REQUEST_OFFSET, (byte) request);
+            region.putShort(offset + JournalFormat.VALUE_OFFSET, (short) value);
+            region.putShort(offset + JournalFormat.INDEX_OFFSET, (short) index);
+            region.putShort(offset + JournalFormat.LENGTH_OFFSET, (short) length);
+
+            if (JournalFormat.hasData(requestType, length)) {
+                for (int i = 0; i < JournalFormat.getDataRecords(length); i++) {
+                    final int dataOffset = this.nextRecord();
+                    final int count = Math.min(JournalFormat.RECORD_LENGTH, length - (i * JournalFormat.RECORD_LENGTH));
+
+                    for (int j = 0; j < count; j++)
+                        region.put(dataOffset + j, data.get(data.position() + (i * JournalFormat.RECORD_LENGTH) + j));
+                }
+            }
+
+            records++;
+            header.putLong(JournalFormat.RECORD_COUNT_OFFSET, records);
+
+            return reserved;
+        } catch (IOException e) {
+            // Journaling is best effort, a full disk shouldn't stop the servos
+            LOG.warn("Unable to extend journal " + path + ", no longer journaling", e);
+            closed = true;
+
+            return -1;
+        }
+    }
+
+    // Records the result of a transfer started with reserve(), taking its latency from the reserved timestamp
+    public synchronized void complete(long reserved, int result) {
+        if (closed || reserved < 0)
+            return;
+
+        try {
+            // Normally still in the current region, unless other records filled it while the transfer was in flight
+            final ByteBuffer record;
+            final int offset;
+            if (reserved >= regionOffset) {
+                record = region;
+                offset = (int) (reserved - regionOffset);
+            }
+            else {
+                record = channel.map(FileChannel.MapMode.READ_WRITE, reserved, JournalFormat.RECORD_LENGTH).order(JournalFormat.ORDER);
+                offset = 0;
+            }
+
+            final long latency = System.nanoTime() - start - record.getLong(offset + JournalFormat.TIMESTAMP_OFFSET);
+
+            record.putInt(offset + JournalFormat.LATENCY_OFFSET, (int) Math.min(latency, Integer.MAX_VALUE));
+            record.putInt(offset + JournalFormat.RESULT_OFFSET, result);
+        } catch (IOException e) {
+            LOG.warn("Unable to complete record in journal " + path + ", no longer journaling", e);
+            closed = true;
+        }
+    }
+
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    // Writes everything appended so far to disk, rather than leaving it to the OS
+    public synchronized void force() {
+        if (closed)
+            return;
+
+        region.force();
+        header.force();
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed && !channel.isOpen())
+            return;
+
+        closed = true;
+
+        try {
+            header.putLong(JournalFormat.RECORD_COUNT_OFFSET, records);
+
+            try {
+                // Drop the unused remainder of the last region
+                channel.truncate(position);
+            } catch (IOException e) {
+                // Some platforms won't truncate a mapped file, the padding is ignored by readers anyway
+                LOG.debug("Unable to truncate journal " + path, e);
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.jamierf.maestro.journal;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.jamierf.maestro.binding.AsyncDriverBinding;
+import com.jamierf.maestro.binding.DriverBinding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Records every transfer made through a driver to a journal. Closing the driver leaves the journal
+// open, so it can carry on recording after a reconnect to a new driver.
+public class JournalingDriverBinding implements DriverBinding {
+
+    // Keeps async drivers async, so wrapping doesn't change how the connection uses them
+    public static DriverBinding wrap(DriverBinding driver, JournalWriter journal) {
+        if (driver instanceof AsyncDriverBinding)
+            return new AsyncJournalingDriverBinding((AsyncDriverBinding) driver, journal);
+
+        return new JournalingDriverBinding(driver, journal);
+    }
+
+    private static class AsyncJournalingDriverBinding extends JournalingDriverBinding implements AsyncDriverBinding {
+
+        private final AsyncDriverBinding driver;
+
+        private AsyncJournalingDriverBinding(AsyncDriverBinding driver, JournalWriter journal) {
+            super (driver, journal);
+
+            this.driver = driver;
+        }
+
+        @Override
+        public ListenableFuture<Integer> submitControlTransfer(int requestType, int request, int value, int index, ByteBuffer buffer, int timeout) {
+            final int length = buffer == null ? 0 : buffer.remaining();
+
+            // Reserved on submission, so the journal keeps the order transfers were sent rather than completed
+            final long reserved = journal.reserve(requestType, request, value, index, length, buffer);
+            final ListenableFuture<Integer> future = driver.submitControlTransfer(requestType, request, value, index, buffer, timeout);
+
+            Futures.addCallback(future, new FutureCallback<Integer>() {
+                @Override
+                public void onSuccess(Integer read) {
+                    journal.complete(reserved, read);
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    journal.complete(reserved, JournalFormat.toResult(cause));
+                }
+            });
+
+            return future;
+        }
+    }
+
+    private final DriverBinding driver;
+    protected final JournalWriter journal;
+
+    public JournalingDriverBinding(DriverBinding driver, JournalWriter journal) {
+        this.driver = driver;
+        this.journal = journal;
+    }
+
+    @Override
+    public ByteBuffer allocateBuffer(int length) {
+        return driver.allocateBuffer(length);
+    }
+
+    @Override
+    public int getVendorId() {
+        return driver.getVendorId();
+    }
+
+    @Override
+    public int getProductId() {
+        return driver.getProductId();
+    }
+
+    @Override
+    public String getSerial() {
+        return driver.getSerial();
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index, ByteBuffer buffer, int timeout) throws IOException {
+        final int length = buffer == null ? 0 : buffer.remaining();
+        final long reserved = journal.reserve(requestType, request, value, index, length, buffer);
+
+        final int read;
+        try {
+            read = driver.controlTransfer(requestType, request, value, index, buffer, timeout);
+        } catch (IOException e) {
+            journal.complete(reserved, JournalFormat.toResult(e));
+            throw e;
+        }
+
+        journal.complete(reserved, read);
+        return read;
+    }
+
+    @Override
+    public void close() {
+        driver.close();
+    }
+}
@@ -0,0 +1,49 @@
+package com.jamierf.maestro.journal;
+
+import java.util.concurrent.TimeUnit;
+
+// How a replay went compared to the journal, lateness is measured in nanoseconds
+public class ReplayStatistics {
+
+    private long replayed;
+    private long failed;
+    private long mismatched;
+    private long maxLateness;
+
+    synchronized void recordReplayed(long lateness, boolean failed, boolean mismatched) {
+        replayed++;
+
+        if (failed)
+            this.failed++;
+
+        if (mismatched)
+            this.mismatched++;
+
+        if (lateness > maxLateness)
+            maxLateness = lateness;
+    }
+
+    public synchronized long getReplayed() {
+        return replayed;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    // Transfers whose result differed from the journal, such as a failure where the original succeeded
+    public synchronized long getMismatched() {
+        return mismatched;
+    }
+
+    // How far behind the journal's timing the replay fell, always zero when replaying without delays
+    public synchronized long getMaxLateness(TimeUnit unit) {
+        return unit.convert(maxLateness, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ReplayStatistics{replayed=%d, failed=%d, mismatched=%d, maxLateness=%dus}",
+                replayed, failed, mismatched, this.getMaxLateness(TimeUnit.MICROSECONDS));
+    }
+}
@@ -0,0 +1,12 @@
+package com.jamierf.maestro.metrics;
+
+import com.jamierf.maestro.api.Request;
+
+// Called on the thread completing each transfer, so implementations must be quick and thread safe
+public interface MetricsListener {
+
+    // Duration in nanoseconds, including time spent queued for the device
+    public void onTransfer(Request request, int bytes, long duration);
+
+    public void onTransferFailed(Request request, Throwable cause, long duration);
+}
@@ -0,0 +1,71 @@
+package com.jamierf.maestro.metrics;
+
+// A point in time copy of the metrics for a single request type, latencies are in microseconds
+public class RequestMetrics {
+
+    private final String request;
+    private final long count;
+    private final long errors;
+    private final long timeouts;
+    private final long bytes;
+    private final long medianLatency;
+    private final long p99Latency;
+    private final long maxLatency;
+
+    public RequestMetrics(String request, long count, long errors, long timeouts, long bytes, long medianLatency, long p99Latency, long maxLatency) {
+        this.request = request;
+        this.count = count;
+        this.errors = errors;
+        this.timeouts = timeouts;
+        this.bytes = bytes;
+        this.medianLatency = medianLatency;
+        this.p99Latency = p99Latency;
+        this.maxLatency = maxLatency;
+    }
+
+    public String getRequest() {
+        return request;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMedianLatency() {
+        return medianLatency;
+    }
+
+    public long getP99Latency() {
+        return p99Latency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetrics{" +
+                "request=" + request +
+                ", count=" + count +
+                ", errors=" + errors +
+                ", timeouts=" + timeouts +
+                ", bytes=" + bytes +
+                ", medianLatency=" + medianLatency +
+                ", p99Latency=" + p99Latency +
+                ", maxLatency=" + maxLatency +
+                '}';
+    }
+}
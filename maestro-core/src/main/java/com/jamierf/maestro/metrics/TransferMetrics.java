@@ -0,0 +1,213 @@
+package com.jamierf.maestro.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.jamierf.maestro.api.Request;
+import com.jamierf.maestro.binding.TransferTimeoutException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters and latency histograms per request type. Recording only touches preallocated atomic
+// arrays, so it never allocates or blocks.
+public class TransferMetrics implements MetricsListener, TransferMetricsMXBean {
+
+    // Latencies below this many microseconds get a bucket each, above it each power of two is
+    // split in to 8 buckets, so percentiles are accurate to within 12.5%
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BITS = Integer.numberOfTrailingZeros(LINEAR_BUCKETS);
+    private static final int BUCKETS = LINEAR_BUCKETS + ((Long.SIZE - 1 - LINEAR_BITS) * SUB_BUCKETS);
+
+    private static final Request[] REQUESTS = Request.values();
+
+    private static int toBucket(long value) {
+        if (value < LINEAR_BUCKETS)
+            return (int) value;
+
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return LINEAR_BUCKETS + ((exponent - LINEAR_BITS) * SUB_BUCKETS) + sub;
+    }
+
+    // The smallest value which falls in to the bucket
+    private static long fromBucket(int bucket) {
+        if (bucket < LINEAR_BUCKETS)
+            return bucket;
+
+        final int exponent = ((bucket - LINEAR_BUCKETS) / SUB_BUCKETS) + LINEAR_BITS;
+        final int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static boolean isTimeout(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof TransferTimeoutException)
+                return true;
+        }
+
+        return false;
+    }
+
+    private final AtomicLongArray counts;
+    private final AtomicLongArray errors;
+    private final AtomicLongArray timeouts;
+    private final AtomicLongArray bytes;
+    private final AtomicLongArray maxLatencies;
+
+    // REQUESTS.length histograms of BUCKETS each, in microseconds
+    private final AtomicLongArray latencies;
+
+    public TransferMetrics() {
+        counts = new AtomicLongArray(REQUESTS.length);
+        errors = new AtomicLongArray(REQUESTS.length);
+        timeouts = new AtomicLongArray(REQUESTS.length);
+        bytes = new AtomicLongArray(REQUESTS.length);
+        maxLatencies = new AtomicLongArray(REQUESTS.length);
+        latencies = new AtomicLongArray(REQUESTS.length * BUCKETS);
+    }
+
+    @Override
+    public void onTransfer(Request request, int bytes, long duration) {
+        final int index = request.ordinal();
+
+        counts.incrementAndGet(index);
+        this.bytes.addAndGet(index, bytes);
+        this.recordLatency(index, duration);
+    }
+
+    @Override
+    public void onTransferFailed(Request request, Throwable cause, long duration) {
+        final int index = request.ordinal();
+
+        counts.incrementAndGet(index);
+        errors.incrementAndGet(index);
+        if (TransferMetrics.isTimeout(cause))
+            timeouts.incrementAndGet(index);
+
+        this.recordLatency(index, duration);
+    }
+
+    private void recordLatency(int index, long duration) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(duration));
+        latencies.incrementAndGet((index * BUCKETS) + TransferMetrics.toBucket(micros));
+
+        long max = maxLatencies.get(index);
+        while (micros > max && !maxLatencies.compareAndSet(index, max, micros))
+            max = maxLatencies.get(index);
+    }
+
+    public long getCount(Request request) {
+        return counts.get(request.ordinal());
+    }
+
+    public long getErrors(Request request) {
+        return errors.get(request.ordinal());
+    }
+
+    public long getTimeouts(Request request) {
+        return timeouts.get(request.ordinal());
+    }
+
+    public long getBytes(Request request) {
+        return bytes.get(request.ordinal());
+    }
+
+    public long getMaxLatency(Request request) {
+        return maxLatencies.get(request.ordinal());
+    }
+
+    // In microseconds, the upper bound of the bucket containing the percentile
+    public long getLatencyPercentile(Request request, double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+
+        final int index = request.ordinal();
+        final int offset = index * BUCKETS;
+
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            total += latencies.get(offset + bucket);
+
+        if (total == 0)
+            return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(total * (percentile / 100D)));
+
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += latencies.get(offset + bucket);
+            if (seen >= rank) {
+                final long upper = bucket + 1 < BUCKETS ? TransferMetrics.fromBucket(bucket + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, maxLatencies.get(index));
+            }
+        }
+
+        return maxLatencies.get(index);
+    }
+
+    public RequestMetrics getRequest(Request request) {
+        return new RequestMetrics(
+                request.name(),
+                this.getCount(request),
+                this.getErrors(request),
+                this.getTimeouts(request),
+                this.getBytes(request),
+                this.getLatencyPercentile(request, 50),
+                this.getLatencyPercentile(request, 99),
+                this.getMaxLatency(request)
+        );
+    }
+
+    @Override
+    public List<RequestMetrics> getRequests() {
+        final ImmutableList.Builder<RequestMetrics> requests = ImmutableList.builder();
+        for (Request request : REQUESTS) {
+            if (counts.get(request.ordinal()) > 0)
+                requests.add(this.getRequest(request));
+        }
+
+        return requests.build();
+    }
+
+    @Override
+    public long getTransferCount() {
+        return TransferMetrics.sum(counts);
+    }
+
+    @Override
+    public long getErrorCount() {
+        return TransferMetrics.sum(errors);
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return TransferMetrics.sum(timeouts);
+    }
+
+    private static long sum(AtomicLongArray array) {
+        long total = 0;
+        for (int i = 0; i < array.length(); i++)
+            total += array.get(i);
+
+        return total;
+    }
+
+    // Not atomic with respect to concurrent transfers, some may be half counted
+    @Override
+    public void reset() {
+        for (int i = 0; i < REQUESTS.length; i++) {
+            counts.set(i, 0);
+            errors.set(i, 0);
+            timeouts.set(i, 0);
+            bytes.set(i, 0);
+            maxLatencies.set(i, 0);
+        }
+
+        for (int i = 0; i < latencies.length(); i++)
+            latencies.set(i, 0);
+    }
+}
@@ -0,0 +1,17 @@
+package com.jamierf.maestro.metrics;
+
+import java.util.List;
+
+public interface TransferMetricsMXBean {
+
+    public long getTransferCount();
+
+    public long getErrorCount();
+
+    public long getTimeoutCount();
+
+    // Only request types which have been used
+    public List<RequestMetrics> getRequests();
+
+    public void reset();
+}
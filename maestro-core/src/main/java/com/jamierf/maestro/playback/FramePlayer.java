@@ -0,0 +1,143 @@
+package com.jamierf.maestro.playback;
+
+import com.jamierf.maestro.MaestroServoController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Streams a frame source to a controller, sending each frame at an absolute deadline so errors don't accumulate
+public class FramePlayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FramePlayer.class);
+
+    // Parking overshoots by tens of microseconds, so the last stretch before a deadline is spun instead
+    private static final long SPIN_THRESHOLD = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static long awaitDeadline(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        while (remaining > SPIN_THRESHOLD) {
+            LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+            remaining = deadline - System.nanoTime();
+        }
+
+        long now = System.nanoTime();
+        while (now < deadline)
+            now = System.nanoTime();
+
+        return now;
+    }
+
+    private final MaestroServoController controller;
+    private final FrameSource source;
+    private final PlaybackStatistics statistics;
+
+    // Reused for every frame, only touched by the playing thread
+    private final int[] frame;
+
+    private volatile boolean stopped;
+    private Thread thread;
+
+    public FramePlayer(MaestroServoController controller, FrameSource source) {
+        final int first = source.getFirstChannel();
+        final int count = source.getChannelCount();
+        if (first < 0 || count < 1 || first + count > controller.getProduct().getPorts())
+            throw new IllegalArgumentException("Invalid channels " + first + " to " + (first + count - 1) + " for " + controller.getProduct());
+
+        if (source.getFramePeriod() <= 0)
+            throw new IllegalArgumentException("Invalid frame period " + source.getFramePeriod());
+
+        this.controller = controller;
+        this.source = source;
+
+        statistics = new PlaybackStatistics();
+        frame = new int[count];
+    }
+
+    // Plays every frame on the calling thread, returning once finished or stopped
+    public void play() {
+        stopped = false;
+        this.playFrames();
+    }
+
+    private void playFrames() {
+        statistics.reset();
+
+        final int first = source.getFirstChannel();
+        final int count = source.getChannelCount();
+        final int frames = source.getFrameCount();
+        final long period = source.getFramePeriod();
+
+        final long start = System.nanoTime();
+
+        int index = 0;
+        while (index < frames && !stopped) {
+            final long deadline = start + index * period;
+            final long now = FramePlayer.awaitDeadline(deadline);
+
+            // If we're more than a whole period late then jump to the current frame rather than playing catch up
+            final long lateness = now - deadline;
+            if (lateness >= period) {
+                final int skipped = (int) Math.min(lateness / period, frames - index - 1);
+                if (skipped > 0) {
+                    statistics.recordMissed(skipped);
+                    index += skipped;
+                }
+            }
+
+            source.getFrame(index, frame);
+            controller.setTargets(first, frame, 0, count);
+
+            statistics.recordPlayed(now - (start + index * period));
+            index++;
+        }
+    }
+
+    // Plays on a background thread
+    public synchronized void start() {
+        if (thread != null && thread.isAlive())
+            throw new IllegalStateException("Already playing");
+
+        // Reset before handing off, so a stop() before the thread gets going isn't lost
+        stopped = false;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FramePlayer.this.playFrames();
+                } catch (RuntimeException e) {
+                    LOG.warn("Playback failed", e);
+                }
+            }
+        }, "maestro-player-" + controller.getSerialNumber());
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public synchronized boolean isPlaying() {
+        return thread != null && thread.isAlive();
+    }
+
+    // Waits for background playback to finish
+    public void await() throws InterruptedException {
+        final Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+        }
+
+        if (thread != null)
+            thread.join();
+    }
+
+    public PlaybackStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,17 @@
+package com.jamierf.maestro.playback;
+
+// A fixed rate sequence of targets for a contiguous run of channels
+public interface FrameSource {
+
+    public int getFirstChannel();
+
+    public int getChannelCount();
+
+    public int getFrameCount();
+
+    // The time between frames, in nanoseconds
+    public long getFramePeriod();
+
+    // Copies the targets of the given frame, in quarter-microseconds, into the start of the array
+    public void getFrame(int frame, int[] into);
+}
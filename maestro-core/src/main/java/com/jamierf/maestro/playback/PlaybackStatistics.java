@@ -0,0 +1,73 @@
+package com.jamierf.maestro.playback;
+
+import java.util.concurrent.TimeUnit;
+
+// How closely a player kept to its deadlines, lateness is measured in nanoseconds
+public class PlaybackStatistics {
+
+    private long played;
+    private long missed;
+
+    private long maxLateness;
+    private double totalLateness;
+    private double totalSquaredLateness;
+
+    synchronized void recordPlayed(long lateness) {
+        played++;
+
+        if (lateness > maxLateness)
+            maxLateness = lateness;
+
+        totalLateness += lateness;
+        totalSquaredLateness += (double) lateness * lateness;
+    }
+
+    synchronized void recordMissed(long frames) {
+        missed += frames;
+    }
+
+    synchronized void reset() {
+        played = 0;
+        missed = 0;
+        maxLateness = 0;
+        totalLateness = 0;
+        totalSquaredLateness = 0;
+    }
+
+    public synchronized long getFramesPlayed() {
+        return played;
+    }
+
+    // Frames skipped because their deadline passed before the previous frame was sent
+    public synchronized long getFramesMissed() {
+        return missed;
+    }
+
+    public synchronized long getMaxLateness(TimeUnit unit) {
+        return unit.convert(maxLateness, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized double getMeanLateness(TimeUnit unit) {
+        if (played == 0)
+            return 0;
+
+        return (totalLateness / played) / TimeUnit.NANOSECONDS.convert(1, unit);
+    }
+
+    // The standard deviation of the lateness
+    public synchronized double getJitter(TimeUnit unit) {
+        if (played == 0)
+            return 0;
+
+        final double mean = totalLateness / played;
+        final double variance = Math.max(0, (totalSquaredLateness / played) - (mean * mean));
+
+        return Math.sqrt(variance) / TimeUnit.NANOSECONDS.convert(1, unit);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PlaybackStatistics{played=%d, missed=%d, meanLateness=%.1fus, maxLateness=%dus, jitter=%.1fus}",
+                played, missed, this.getMeanLateness(TimeUnit.MICROSECONDS), this.getMaxLateness(TimeUnit.MICROSECONDS), this.getJitter(TimeUnit.MICROSECONDS));
+    }
+}
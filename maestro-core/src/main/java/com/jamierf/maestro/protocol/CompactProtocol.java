@@ -0,0 +1,110 @@
+package com.jamierf.maestro.protocol;
+
+import java.nio.ByteBuffer;
+
+// Encodes commands in the Pololu compact protocol, as accepted on the command port
+public class CompactProtocol {
+
+    public static final int SET_TARGET = 0x84;
+    public static final int SET_SPEED = 0x87;
+    public static final int SET_ACCELERATION = 0x89;
+    public static final int GET_POSITION = 0x90;
+    public static final int GET_MOVING_STATE = 0x93;
+    public static final int SET_MULTIPLE_TARGETS = 0x9F;
+    public static final int GET_ERRORS = 0xA1;
+    public static final int GO_HOME = 0xA2;
+
+    // Command byte, channel, 2 data bytes and a CRC byte
+    public static final int MAX_CHANNEL_COMMAND_LENGTH = 5;
+
+    public static int getMultipleTargetsLength(int count) {
+        // Command byte, count, first channel, 2 bytes per target and a CRC byte
+        return 3 + (count * 2) + 1;
+    }
+
+    private final boolean crc;
+
+    public CompactProtocol(boolean crc) {
+        this.crc = crc;
+    }
+
+    public boolean isCrc() {
+        return crc;
+    }
+
+    public void setTarget(ByteBuffer out, int channel, int target) {
+        this.channelCommand(out, SET_TARGET, channel, target);
+    }
+
+    public void setSpeed(ByteBuffer out, int channel, int speed) {
+        this.channelCommand(out, SET_SPEED, channel, speed);
+    }
+
+    public void setAcceleration(ByteBuffer out, int channel, int acceleration) {
+        this.channelCommand(out, SET_ACCELERATION, channel, acceleration);
+    }
+
+    // Only supported by the mini maestros
+    public void setMultipleTargets(ByteBuffer out, int firstChannel, int[] targets, int offset, int count) {
+        final int start = out.position();
+
+        out.put((byte) SET_MULTIPLE_TARGETS);
+        out.put((byte) count);
+        out.put((byte) firstChannel);
+
+        for (int i = offset; i < offset + count; i++)
+            CompactProtocol.putValue(out, targets[i]);
+
+        this.finish(out, start);
+    }
+
+    public void getPosition(ByteBuffer out, int channel) {
+        final int start = out.position();
+
+        out.put((byte) GET_POSITION);
+        out.put((byte) channel);
+
+        this.finish(out, start);
+    }
+
+    public void getMovingState(ByteBuffer out) {
+        this.command(out, GET_MOVING_STATE);
+    }
+
+    public void getErrors(ByteBuffer out) {
+        this.command(out, GET_ERRORS);
+    }
+
+    public void goHome(ByteBuffer out) {
+        this.command(out, GO_HOME);
+    }
+
+    private void command(ByteBuffer out, int command) {
+        final int start = out.position();
+
+        out.put((byte) command);
+
+        this.finish(out, start);
+    }
+
+    private void channelCommand(ByteBuffer out, int command, int channel, int value) {
+        final int start = out.position();
+
+        out.put((byte) command);
+        out.put((byte) channel);
+        CompactProtocol.putValue(out, value);
+
+        this.finish(out, start);
+    }
+
+    // Values are sent as two 7-bit bytes, low bits first
+    private static void putValue(ByteBuffer out, int value) {
+        out.put((byte) (value & 0x7F));
+        out.put((byte) ((value >> 7) & 0x7F));
+    }
+
+    private void finish(ByteBuffer out, int start) {
+        if (crc)
+            out.put(Crc7.compute(out, start, out.position()));
+    }
+}
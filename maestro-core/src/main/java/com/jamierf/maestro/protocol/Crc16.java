@@ -0,0 +1,32 @@
+package com.jamierf.maestro.protocol;
+
+// The 16-bit CRC the Maestro stores alongside its script (polynomial 0xA001, least significant bit first)
+public class Crc16 {
+
+    private static final int POLYNOMIAL = 0xA001;
+    private static final char[] TABLE = new char[256];
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                if ((crc & 1) != 0)
+                    crc = (crc >> 1) ^ POLYNOMIAL;
+                else
+                    crc >>= 1;
+            }
+
+            TABLE[i] = (char) crc;
+        }
+    }
+
+    public static int compute(byte[] bytes, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++)
+            crc = (crc >> 8) ^ TABLE[(crc ^ bytes[i]) & 0xFF];
+
+        return crc & 0xFFFF;
+    }
+
+    private Crc16() {}
+}
@@ -0,0 +1,35 @@
+package com.jamierf.maestro.protocol;
+
+import java.nio.ByteBuffer;
+
+// The 7-bit CRC used by the Pololu serial protocols (polynomial 0x91, least significant bit first)
+public class Crc7 {
+
+    private static final int POLYNOMIAL = 0x91;
+    private static final byte[] TABLE = new byte[256];
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                if ((crc & 1) != 0)
+                    crc ^= POLYNOMIAL;
+
+                crc >>= 1;
+            }
+
+            TABLE[i] = (byte) crc;
+        }
+    }
+
+    // Computes the CRC of the bytes between from (inclusive) and to (exclusive), without moving the position
+    public static byte compute(ByteBuffer buffer, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++)
+            crc = TABLE[(crc ^ buffer.get(i)) & 0xFF];
+
+        return (byte) crc;
+    }
+
+    private Crc7() {}
+}
@@ -0,0 +1,97 @@
+package com.jamierf.maestro.script;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+// Bytecode instructions understood by the Maestro script interpreter
+public enum Opcode {
+    QUIT(0, "QUIT"),
+    LITERAL(1),                             // followed by a 2 byte value
+    LITERAL8(2),                            // followed by a 1 byte value
+    LITERAL_N(3),                           // followed by a count then that many 2 byte values
+    LITERAL8_N(4),                          // followed by a count then that many 1 byte values
+    RETURN(5, "RETURN"),
+    JUMP(6),                                // followed by a 2 byte address
+    JUMP_Z(7),                              // followed by a 2 byte address, jumps if the top of the stack is zero
+    DELAY(8, "DELAY"),
+    GET_MS(9, "GET_MS"),
+    DEPTH(10, "DEPTH"),
+    DROP(11, "DROP"),
+    DUP(12, "DUP"),
+    OVER(13, "OVER"),
+    PICK(14, "PICK"),
+    SWAP(15, "SWAP"),
+    ROT(16, "ROT"),
+    ROLL(17, "ROLL"),
+    BITWISE_NOT(18, "BITWISE_NOT", "~"),
+    BITWISE_AND(19, "BITWISE_AND", "&"),
+    BITWISE_OR(20, "BITWISE_OR", "|"),
+    BITWISE_XOR(21, "BITWISE_XOR", "^"),
+    SHIFT_RIGHT(22, "RSHIFT", ">>"),
+    SHIFT_LEFT(23, "LSHIFT", "<<"),
+    LOGICAL_NOT(24, "LOGICAL_NOT", "!"),
+    LOGICAL_AND(25, "LOGICAL_AND", "&&"),
+    LOGICAL_OR(26, "LOGICAL_OR", "||"),
+    NEGATE(27, "NEGATE"),
+    PLUS(28, "PLUS", "+"),
+    MINUS(29, "MINUS", "-"),
+    TIMES(30, "TIMES", "*"),
+    DIVIDE(31, "DIVIDE", "/"),
+    MOD(32, "MOD", "%"),
+    POSITIVE(33, "POSITIVE"),
+    NEGATIVE(34, "NEGATIVE"),
+    NONZERO(35, "NONZERO"),
+    EQUALS(36, "EQUALS", "="),
+    NOT_EQUALS(37, "NOT_EQUALS", "!="),
+    MIN(38, "MIN"),
+    MAX(39, "MAX"),
+    LESS_THAN(40, "LESS_THAN", "<"),
+    GREATER_THAN(41, "GREATER_THAN", ">"),
+    SERVO(42, "SERVO"),
+    SERVO_8BIT(43, "SERVO_8BIT"),
+    SPEED(44, "SPEED"),
+    ACCELERATION(45, "ACCELERATION"),
+    GET_POSITION(46, "GET_POSITION"),
+    GET_MOVING_STATE(47, "GET_MOVING_STATE"),
+    LED_ON(48, "LED_ON"),
+    LED_OFF(49, "LED_OFF"),
+    PWM(50, "PWM"),
+    PEEK(51, "PEEK"),
+    POKE(52, "POKE"),
+    SERIAL_SEND_BYTE(53, "SERIAL_SEND_BYTE"),
+    CALL(54);                               // followed by a 2 byte address
+
+    // Calls to the first 128 subroutines take a single byte, indexing the subroutine table
+    public static final int CALL_SUBROUTINE = 128;
+
+    private static final Map<String, Opcode> KEYWORDS;
+
+    static {
+        final ImmutableMap.Builder<String, Opcode> keywords = ImmutableMap.builder();
+        for (Opcode opcode : Opcode.values()) {
+            for (String keyword : opcode.keywords)
+                keywords.put(keyword, opcode);
+        }
+
+        KEYWORDS = keywords.build();
+    }
+
+    // Case sensitive, keywords are expected to already be upper case
+    public static Optional<Opcode> fromKeyword(String keyword) {
+        return Optional.fromNullable(KEYWORDS.get(keyword));
+    }
+
+    private final byte code;
+    private final String[] keywords;
+
+    private Opcode(int code, String... keywords) {
+        this.code = (byte) code;
+        this.keywords = keywords;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,69 @@
+package com.jamierf.maestro.script;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.jamierf.maestro.protocol.Crc16;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// Compiled script bytecode along with the address of each subroutine
+public class Program {
+
+    // Unused entries in the subroutine table
+    public static final int NO_SUBROUTINE = 0xFFFF;
+
+    private final byte[] bytecode;
+    private final int[] subroutineAddresses;
+    private final Map<String, Integer> subroutines;
+    private final int crc;
+
+    Program(byte[] bytecode, int[] subroutineAddresses, Map<String, Integer> subroutines) {
+        this.bytecode = bytecode;
+        this.subroutineAddresses = subroutineAddresses;
+        this.subroutines = ImmutableMap.copyOf(subroutines);
+
+        crc = Crc16.compute(bytecode, 0, bytecode.length);
+    }
+
+    public int getLength() {
+        return bytecode.length;
+    }
+
+    public byte[] getBytecode() {
+        return Arrays.copyOf(bytecode, bytecode.length);
+    }
+
+    // Copies part of the bytecode, anything past the end is left untouched
+    public int getBytecode(int offset, byte[] into, int length) {
+        final int count = Math.max(0, Math.min(length, bytecode.length - offset));
+        System.arraycopy(bytecode, offset, into, 0, count);
+        return count;
+    }
+
+    public int getSubroutineCount() {
+        return subroutineAddresses.length;
+    }
+
+    public int getSubroutineAddress(int subroutine) {
+        return subroutineAddresses[subroutine];
+    }
+
+    // Subroutine names are upper case, as the language is case insensitive
+    public Optional<Integer> getSubroutine(String name) {
+        return Optional.fromNullable(subroutines.get(name.toUpperCase()));
+    }
+
+    public int getCrc() {
+        return crc;
+    }
+
+    @Override
+    public String toString() {
+        return "Program{" +
+                "length=" + bytecode.length +
+                ", subroutines=" + subroutines.keySet() +
+                ", crc=" + crc +
+                '}';
+    }
+}
@@ -0,0 +1,363 @@
+package com.jamierf.maestro.script;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+// Compiles Maestro script source, as accepted by the Maestro Control Center, in to bytecode
+public class ScriptCompiler {
+
+    public static Program compile(String source) {
+        return new ScriptCompiler(ScriptCompiler.tokenize(source)).compile();
+    }
+
+    // The subroutine table only has room for this many, later subroutines are called by address
+    public static final int MAX_TABLE_SUBROUTINES = 128;
+
+    private static final int MAX_LITERAL_RUN = 255;
+
+    private static class Token {
+        private final String text;
+        private final int line;
+
+        private Token(String text, int line) {
+            this.text = text;
+            this.line = line;
+        }
+    }
+
+    private static class Block {
+        private final String keyword;
+        private final String start;
+        private final String end;
+        private boolean split;
+
+        private Block(String keyword, String start, String end) {
+            this.keyword = keyword;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static class Fixup {
+        private final int position;
+        private final String label;
+        private final int line;
+
+        private Fixup(int position, String label, int line) {
+            this.position = position;
+            this.label = label;
+            this.line = line;
+        }
+    }
+
+    // Words are separated by whitespace, comments run from # to the end of the line
+    private static List<Token> tokenize(String source) {
+        final List<Token> tokens = Lists.newArrayList();
+        final String[] lines = source.split("\r?\n|\r");
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+
+            final int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+
+            for (String word : line.trim().split("\\s+")) {
+                if (!word.isEmpty())
+                    tokens.add(new Token(word.toUpperCase(), i + 1));
+            }
+        }
+
+        return tokens;
+    }
+
+    private static Optional<Integer> parseLiteral(String text) {
+        try {
+            if (text.startsWith("0X"))
+                return Optional.of(Integer.parseInt(text.substring(2), 16));
+
+            return Optional.of(Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            return Optional.absent();
+        }
+    }
+
+    private static IllegalArgumentException error(Token token, String message) {
+        return new IllegalArgumentException("Line " + token.line + ": " + message);
+    }
+
+    private final List<Token> tokens;
+    private final ByteArrayOutputStream code;
+
+    private final Map<String, Integer> labels;
+    private final List<Fixup> fixups;
+    private final Deque<Block> blocks;
+
+    private final Map<String, Integer> subroutines;
+    private final int[] subroutineAddresses;
+
+    // Consecutive literals are buffered so they can be pushed by a single instruction
+    private final List<Integer> literals;
+
+    private int generated;
+
+    private ScriptCompiler(List<Token> tokens) {
+        this.tokens = tokens;
+
+        code = new ByteArrayOutputStream();
+        labels = Maps.newHashMap();
+        fixups = Lists.newArrayList();
+        blocks = new ArrayDeque<Block>();
+        literals = Lists.newArrayList();
+
+        // Subroutines may be called before they're defined, so number them all up front
+        subroutines = Maps.newLinkedHashMap();
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            if (!tokens.get(i).text.equals("SUB"))
+                continue;
+
+            final Token name = tokens.get(i + 1);
+            if (subroutines.containsKey(name.text))
+                throw ScriptCompiler.error(name, "Subroutine " + name.text + " defined twice");
+
+            subroutines.put(name.text, subroutines.size());
+        }
+
+        subroutineAddresses = new int[subroutines.size()];
+    }
+
+    private Program compile() {
+        for (int i = 0; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+
+            final Optional<Integer> literal = ScriptCompiler.parseLiteral(token.text);
+            if (literal.isPresent()) {
+                final int value = literal.get();
+                if (value < Short.MIN_VALUE || value > 0xFFFF)
+                    throw ScriptCompiler.error(token, "Literal " + value + " out of range");
+
+                literals.add(value);
+                continue;
+            }
+
+            this.flushLiterals();
+
+            if (token.text.length() > 1 && token.text.endsWith(":")) {
+                this.define(token, token.text.substring(0, token.text.length() - 1));
+                continue;
+            }
+
+            if (token.text.equals("SUB") || token.text.equals("GOTO")) {
+                if (i + 1 >= tokens.size())
+                    throw ScriptCompiler.error(token, token.text + " needs a name");
+
+                this.compileNamed(token, tokens.get(++i));
+                continue;
+            }
+
+            if (!this.compileKeyword(token))
+                this.compileWord(token);
+        }
+
+        this.flushLiterals();
+
+        if (!blocks.isEmpty())
+            throw new IllegalArgumentException("Unterminated " + blocks.peek().keyword + " block");
+
+        // Don't run off the end in to whatever follows the script
+        this.emit(Opcode.QUIT);
+
+        return this.link();
+    }
+
+    private void compileNamed(Token keyword, Token name) {
+        if (keyword.text.equals("GOTO")) {
+            this.emitJump(Opcode.JUMP, name.text, name);
+            return;
+        }
+
+        if (!blocks.isEmpty())
+            throw ScriptCompiler.error(keyword, "Subroutine " + name.text + " defined inside a " + blocks.peek().keyword + " block");
+
+        final int subroutine = subroutines.get(name.text);
+        subroutineAddresses[subroutine] = code.size();
+
+        this.define(name, this.getSubroutineLabel(name.text));
+    }
+
+    private boolean compileKeyword(Token token) {
+        if (token.text.equals("BEGIN")) {
+            final Block block = new Block("BEGIN", this.generateLabel(), this.generateLabel());
+            this.define(token, block.start);
+            blocks.push(block);
+            return true;
+        }
+
+        if (token.text.equals("WHILE")) {
+            final Block block = this.expectBlock(token, "BEGIN");
+            if (block.split)
+                throw ScriptCompiler.error(token, "Multiple WHILE in one BEGIN block");
+
+            block.split = true;
+            this.emitJump(Opcode.JUMP_Z, block.end, token);
+            return true;
+        }
+
+        if (token.text.equals("REPEAT")) {
+            final Block block = this.expectBlock(token, "BEGIN");
+            blocks.pop();
+
+            this.emitJump(Opcode.JUMP, block.start, token);
+            this.define(token, block.end);
+            return true;
+        }
+
+        if (token.text.equals("IF")) {
+            final Block block = new Block("IF", this.generateLabel(), this.generateLabel());
+            this.emitJump(Opcode.JUMP_Z, block.start, token);
+            blocks.push(block);
+            return true;
+        }
+
+        if (token.text.equals("ELSE")) {
+            final Block block = this.expectBlock(token, "IF");
+            if (block.split)
+                throw ScriptCompiler.error(token, "Multiple ELSE in one IF block");
+
+            block.split = true;
+            this.emitJump(Opcode.JUMP, block.end, token);
+
+            // For an IF block the start label is where a false condition jumps to
+            this.define(token, block.start);
+            return true;
+        }
+
+        if (token.text.equals("ENDIF")) {
+            final Block block = this.expectBlock(token, "IF");
+            blocks.pop();
+
+            if (!block.split)
+                this.define(token, block.start);
+
+            this.define(token, block.end);
+            return true;
+        }
+
+        return false;
+    }
+
+    private void compileWord(Token token) {
+        final Optional<Opcode> opcode = Opcode.fromKeyword(token.text);
+        if (opcode.isPresent()) {
+            this.emit(opcode.get());
+            return;
+        }
+
+        final Integer subroutine = subroutines.get(token.text);
+        if (subroutine == null)
+            throw ScriptCompiler.error(token, "Unrecognized word " + token.text);
+
+        if (subroutine < MAX_TABLE_SUBROUTINES)
+            code.write(Opcode.CALL_SUBROUTINE + subroutine);
+        else
+            this.emitJump(Opcode.CALL, this.getSubroutineLabel(token.text), token);
+    }
+
+    private Block expectBlock(Token token, String keyword) {
+        final Block block = blocks.peek();
+        if (block == null || !block.keyword.equals(keyword))
+            throw ScriptCompiler.error(token, token.text + " without matching " + keyword);
+
+        return block;
+    }
+
+    // Generated and subroutine labels contain a #, so can never clash with one from the source
+    private String generateLabel() {
+        return "#" + (generated++);
+    }
+
+    private String getSubroutineLabel(String name) {
+        return "#SUB " + name;
+    }
+
+    private void define(Token token, String label) {
+        if (labels.containsKey(label))
+            throw ScriptCompiler.error(token, "Label " + label + " defined twice");
+
+        labels.put(label, code.size());
+    }
+
+    private void emit(Opcode opcode) {
+        code.write(opcode.getCode());
+    }
+
+    private void emitJump(Opcode opcode, String label, Token token) {
+        this.emit(opcode);
+
+        fixups.add(new Fixup(code.size(), label, token.line));
+        code.write(0);
+        code.write(0);
+    }
+
+    private void emitShort(int value) {
+        code.write(value & 0xFF);
+        code.write((value >> 8) & 0xFF);
+    }
+
+    private void flushLiterals() {
+        int offset = 0;
+        while (offset < literals.size()) {
+            final int count = Math.min(literals.size() - offset, MAX_LITERAL_RUN);
+
+            boolean small = true;
+            for (int i = 0; i < count; i++) {
+                final int value = literals.get(offset + i);
+                small &= value >= 0 && value <= 0xFF;
+            }
+
+            if (count == 1) {
+                this.emit(small ? Opcode.LITERAL8 : Opcode.LITERAL);
+            }
+            else {
+                this.emit(small ? Opcode.LITERAL8_N : Opcode.LITERAL_N);
+                code.write(count);
+            }
+
+            for (int i = 0; i < count; i++) {
+                final int value = literals.get(offset + i);
+                if (small)
+                    code.write(value);
+                else
+                    this.emitShort(value);
+            }
+
+            offset += count;
+        }
+
+        literals.clear();
+    }
+
+    private Program link() {
+        final byte[] bytecode = code.toByteArray();
+        if (bytecode.length > 0xFFFF)
+            throw new IllegalArgumentException("Script too long, " + bytecode.length + " bytes");
+
+        for (Fixup fixup : fixups) {
+            final Integer address = labels.get(fixup.label);
+            if (address == null)
+                throw new IllegalArgumentException("Line " + fixup.line + ": Undefined label " + fixup.label);
+
+            bytecode[fixup.position] = (byte) (address & 0xFF);
+            bytecode[fixup.position + 1] = (byte) ((address >> 8) & 0xFF);
+        }
+
+        return new Program(bytecode, subroutineAddresses, subroutines);
+    }
+}
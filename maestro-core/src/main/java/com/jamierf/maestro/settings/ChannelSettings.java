@@ -18,6 +18,7 @@ public class ChannelSettings {
         private int range = 1905;       // 2000;       // 500us
         private int speed = 0;          // unlimited
         private int acceleration = 0;   // unlimited
+        private float rangeDegrees = 45;
 
         public Builder setChannelMode(ChannelMode channelMode) {
             this.channelMode = channelMode;
@@ -64,8 +65,14 @@ public class ChannelSettings {
             return this;
         }
 
+        // The angle the servo turns through between neutral and neutral + range
+        public Builder setRangeDegrees(float rangeDegrees) {
+            this.rangeDegrees = rangeDegrees;
+            return this;
+        }
+
         public ChannelSettings build() {
-            return new ChannelSettings(channelMode, homeMode, home, minimum, maximum, neutral, range, speed, acceleration);
+            return new ChannelSettings(channelMode, homeMode, home, minimum, maximum, neutral, range, speed, acceleration, rangeDegrees);
         }
     }
 
@@ -136,7 +143,17 @@ public class ChannelSettings {
     // Increment = 1.
     private final int acceleration;
 
+    // Degrees: the angle corresponding to range, only used to convert angles to targets on the host.
+    private final float rangeDegrees;
+
     public ChannelSettings(ChannelMode channelMode, HomeMode homeMode, int home, int minimum, int maximum, int neutral, int range, int speed, int acceleration) {
+        this (channelMode, homeMode, home, minimum, maximum, neutral, range, speed, acceleration, 45);
+    }
+
+    public ChannelSettings(ChannelMode channelMode, HomeMode homeMode, int home, int minimum, int maximum, int neutral, int range, int speed, int acceleration, float rangeDegrees) {
+        if (rangeDegrees <= 0)
+            throw new IllegalArgumentException("Invalid range in degrees " + rangeDegrees);
+
         this.channelMode = channelMode;
         this.homeMode = homeMode;
         this.home = home;
@@ -146,6 +163,7 @@ public class ChannelSettings {
         this.range = range;
         this.speed = speed;
         this.acceleration = acceleration;
+        this.rangeDegrees = rangeDegrees;
     }
 
     public ChannelMode getChannelMode() {
@@ -200,6 +218,10 @@ public class ChannelSettings {
         return acceleration;
     }
 
+    public float getRangeDegrees() {
+        return rangeDegrees;
+    }
+
     @Override
     public String toString() {
         return "ChannelSettings{" +
@@ -212,6 +234,7 @@ public class ChannelSettings {
                 ", range=" + range +
                 ", speed=" + speed +
                 ", acceleration=" + acceleration +
+                ", rangeDegrees=" + rangeDegrees +
                 '}';
     }
 }
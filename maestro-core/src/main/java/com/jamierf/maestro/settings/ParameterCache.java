@@ -0,0 +1,105 @@
+package com.jamierf.maestro.settings;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+// The last parameters written to each device, keyed by serial number and firmware version, so they
+// don't need writing (or reading) again on the next start. Best effort, failures are only logged.
+// Changes made to a device by anything else, such as the Maestro Control Center, won't be noticed
+// until the cache entry is invalidated.
+public class ParameterCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParameterCache.class);
+
+    private static final String SUFFIX = ".properties";
+
+    private final File directory;
+
+    public ParameterCache(File directory) {
+        this.directory = directory;
+    }
+
+    private File getFile(String serial, String firmwareVersion) {
+        // Serial numbers and versions are plain ASCII, but don't trust them in a path
+        final String name = "maestro-" + serial + "-" + firmwareVersion;
+        return new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX);
+    }
+
+    // Parameter values keyed by their code, absent if nothing is cached for this device
+    public synchronized Optional<Map<Integer, Integer>> load(String serial, String firmwareVersion) {
+        final File file = this.getFile(serial, firmwareVersion);
+        if (!file.isFile())
+            return Optional.absent();
+
+        final Properties properties = new Properties();
+
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            final ImmutableMap.Builder<Integer, Integer> parameters = ImmutableMap.builder();
+            for (String code : properties.stringPropertyNames())
+                parameters.put(Integer.parseInt(code), Integer.parseInt(properties.getProperty(code)));
+
+            return Optional.<Map<Integer, Integer>>of(parameters.build());
+        } catch (IOException e) {
+            LOG.warn("Unable to read parameter cache " + file, e);
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring corrupt parameter cache " + file, e);
+        }
+
+        return Optional.absent();
+    }
+
+    public synchronized void save(String serial, String firmwareVersion, Map<Integer, Integer> parameters) {
+        final File file = this.getFile(serial, firmwareVersion);
+
+        final Properties properties = new Properties();
+        for (Map.Entry<Integer, Integer> parameter : parameters.entrySet())
+            properties.setProperty(String.valueOf(parameter.getKey()), String.valueOf(parameter.getValue()));
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Unable to create directory " + directory);
+
+            // Write a copy then swap it in, so a crash never leaves a partial cache behind
+            final File temp = new File(directory, file.getName() + ".tmp");
+
+            final OutputStream out = new FileOutputStream(temp);
+            try {
+                properties.store(out, "Maestro " + serial + " firmware " + firmwareVersion);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file))
+                    throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write parameter cache " + file, e);
+        }
+    }
+
+    public synchronized void invalidate(String serial, String firmwareVersion) {
+        final File file = this.getFile(serial, firmwareVersion);
+        if (file.exists() && !file.delete())
+            LOG.warn("Unable to delete parameter cache " + file);
+    }
+}
@@ -219,6 +219,14 @@ public class Settings {
         return channels.get(port);
     }
 
+    public Settings withChannel(int port, ChannelSettings channel) {
+        final Map<Integer, ChannelSettings> channels = Maps.newTreeMap();
+        channels.putAll(this.channels);
+        channels.put(port, channel);
+
+        return new Settings(servosAvailable, servoPeriod, serialMode, baudRate, enableCrc, neverSuspend, deviceNumber, miniSscOffset, timeout, scriptDone, enablePullups, ImmutableMap.copyOf(channels));
+    }
+
     @Override
     public String toString() {
         return "Settings{" +
@@ -0,0 +1,56 @@
+package com.jamierf.maestro.settings;
+
+// Per channel conversion factors derived from the channel settings once, so targets can be converted
+// and clamped with nothing but array lookups and float arithmetic
+public class TargetConversions {
+
+    private final int[] minimums;
+    private final int[] maximums;
+    private final float[] neutrals;
+
+    // Quarter-microseconds per unit of a normalized target, and per degree
+    private final float[] ranges;
+    private final float[] degrees;
+
+    public TargetConversions(Settings settings, int ports) {
+        minimums = new int[ports];
+        maximums = new int[ports];
+        neutrals = new float[ports];
+        ranges = new float[ports];
+        degrees = new float[ports];
+
+        for (int port = 0; port < ports; port++) {
+            final ChannelSettings channel = settings.getChannel(port);
+
+            minimums[port] = channel.getMinimum();
+            maximums[port] = channel.getMaximum();
+            neutrals[port] = channel.getNeutral();
+            ranges[port] = channel.getRange();
+            degrees[port] = channel.getRange() / channel.getRangeDegrees();
+        }
+    }
+
+    public int getChannels() {
+        return minimums.length;
+    }
+
+    public int clamp(int channel, int target) {
+        if (target < minimums[channel])
+            return minimums[channel];
+
+        if (target > maximums[channel])
+            return maximums[channel];
+
+        return target;
+    }
+
+    // -1 is neutral - range, 1 is neutral + range
+    public int fromNormalized(int channel, float value) {
+        return this.clamp(channel, Math.round(neutrals[channel] + (value * ranges[channel])));
+    }
+
+    // Relative to neutral
+    public int fromDegrees(int channel, float angle) {
+        return this.clamp(channel, Math.round(neutrals[channel] + (angle * degrees[channel])));
+    }
+}
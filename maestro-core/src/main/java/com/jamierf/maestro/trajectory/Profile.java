@@ -0,0 +1,27 @@
+package com.jamierf.maestro.trajectory;
+
+// How a channel moves between two waypoints, maps progress through a segment to progress along it
+public enum Profile {
+    LINEAR {
+        @Override
+        public double interpolate(double t) {
+            return t;
+        }
+    },
+    // Eases in and out of every waypoint, zero velocity at each end
+    CUBIC {
+        @Override
+        public double interpolate(double t) {
+            return t * t * (3 - 2 * t);
+        }
+    },
+    // Zero velocity and acceleration at each end
+    MINIMUM_JERK {
+        @Override
+        public double interpolate(double t) {
+            return t * t * t * (10 + t * (6 * t - 15));
+        }
+    };
+
+    public abstract double interpolate(double t);
+}
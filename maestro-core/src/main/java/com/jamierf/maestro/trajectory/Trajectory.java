@@ -0,0 +1,188 @@
+package com.jamierf.maestro.trajectory;
+
+import com.google.common.collect.Lists;
+import com.jamierf.maestro.playback.FrameSource;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Waypoints for a run of channels, interpolated up front in to a flat array of setpoints
+public class Trajectory implements FrameSource {
+
+    private static class Waypoint {
+        private final long time;
+        private final int target;
+
+        private Waypoint(long time, int target) {
+            this.time = time;
+            this.target = target;
+        }
+    }
+
+    private static final Comparator<Waypoint> BY_TIME = new Comparator<Waypoint>() {
+        @Override
+        public int compare(Waypoint a, Waypoint b) {
+            return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+        }
+    };
+
+    public static class Builder {
+
+        private final int firstChannel;
+        private final List<List<Waypoint>> waypoints;
+
+        private double frameRate = 50;
+        private Profile profile = Profile.MINIMUM_JERK;
+
+        private Builder(int firstChannel, int channelCount) {
+            if (firstChannel < 0 || channelCount < 1)
+                throw new IllegalArgumentException("Invalid channels " + firstChannel + " to " + (firstChannel + channelCount - 1));
+
+            this.firstChannel = firstChannel;
+
+            waypoints = Lists.newArrayListWithCapacity(channelCount);
+            for (int i = 0; i < channelCount; i++)
+                waypoints.add(Lists.<Waypoint>newArrayList());
+        }
+
+        // Frames per second
+        public Builder setFrameRate(double frameRate) {
+            if (frameRate <= 0)
+                throw new IllegalArgumentException("Invalid frame rate " + frameRate);
+
+            this.frameRate = frameRate;
+            return this;
+        }
+
+        public Builder setProfile(Profile profile) {
+            this.profile = profile;
+            return this;
+        }
+
+        // Target in quarter-microseconds to be reached at the given time after the start
+        public Builder addWaypoint(int channel, long time, TimeUnit unit, int target) {
+            final int index = channel - firstChannel;
+            if (index < 0 || index >= waypoints.size())
+                throw new IllegalArgumentException("Channel " + channel + " not in trajectory");
+
+            if (time < 0 || target < 0)
+                throw new IllegalArgumentException("Invalid waypoint " + target + " at " + time + " " + unit);
+
+            waypoints.get(index).add(new Waypoint(unit.toNanos(time), target));
+            return this;
+        }
+
+        public Trajectory build() {
+            final int channels = waypoints.size();
+            final long period = (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+
+            long duration = 0;
+            for (int i = 0; i < channels; i++) {
+                final List<Waypoint> channel = waypoints.get(i);
+                if (channel.isEmpty())
+                    throw new IllegalStateException("No waypoints for channel " + (firstChannel + i));
+
+                Collections.sort(channel, BY_TIME);
+                duration = Math.max(duration, channel.get(channel.size() - 1).time);
+            }
+
+            final int frames = (int) (duration / period) + 1;
+            final int[] setpoints = new int[frames * channels];
+
+            for (int i = 0; i < channels; i++)
+                Builder.interpolate(waypoints.get(i), profile, period, setpoints, i, channels);
+
+            return new Trajectory(firstChannel, channels, frames, period, setpoints);
+        }
+
+        // Fills every frame of a single channel, holding the first and last waypoints beyond either end
+        private static void interpolate(List<Waypoint> waypoints, Profile profile, long period, int[] setpoints, int channel, int stride) {
+            final int frames = setpoints.length / stride;
+
+            int segment = 0;
+            for (int frame = 0; frame < frames; frame++) {
+                final long time = frame * period;
+                while (segment < waypoints.size() && waypoints.get(segment).time <= time)
+                    segment++;
+
+                final int value;
+                if (segment == 0) {
+                    value = waypoints.get(0).target;
+                }
+                else if (segment == waypoints.size()) {
+                    value = waypoints.get(segment - 1).target;
+                }
+                else {
+                    final Waypoint from = waypoints.get(segment - 1);
+                    final Waypoint to = waypoints.get(segment);
+
+                    final double progress = profile.interpolate((double) (time - from.time) / (to.time - from.time));
+                    value = (int) Math.round(from.target + (to.target - from.target) * progress);
+                }
+
+                setpoints[frame * stride + channel] = value;
+            }
+        }
+    }
+
+    public static Builder builder(int firstChannel, int channelCount) {
+        return new Builder(firstChannel, channelCount);
+    }
+
+    private final int firstChannel;
+    private final int channelCount;
+    private final int frameCount;
+    private final long framePeriod;
+
+    // Frame major, channelCount values per frame
+    private final int[] setpoints;
+
+    private Trajectory(int firstChannel, int channelCount, int frameCount, long framePeriod, int[] setpoints) {
+        this.firstChannel = firstChannel;
+        this.channelCount = channelCount;
+        this.frameCount = frameCount;
+        this.framePeriod = framePeriod;
+        this.setpoints = setpoints;
+    }
+
+    @Override
+    public int getFirstChannel() {
+        return firstChannel;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public long getFramePeriod() {
+        return framePeriod;
+    }
+
+    @Override
+    public void getFrame(int frame, int[] into) {
+        System.arraycopy(setpoints, frame * channelCount, into, 0, channelCount);
+    }
+
+    public int getSetpoint(int frame, int channel) {
+        return setpoints[frame * channelCount + (channel - firstChannel)];
+    }
+
+    @Override
+    public String toString() {
+        return "Trajectory{" +
+                "firstChannel=" + firstChannel +
+                ", channelCount=" + channelCount +
+                ", frameCount=" + frameCount +
+                ", framePeriod=" + framePeriod +
+                '}';
+    }
+}
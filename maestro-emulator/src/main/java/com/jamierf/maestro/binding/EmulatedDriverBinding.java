@@ -0,0 +1,517 @@
+package com.jamierf.maestro.binding;
+
+import com.google.common.base.Ticker;
+import com.jamierf.maestro.api.Product;
+import com.jamierf.maestro.api.Request;
+import com.jamierf.maestro.api.RequestType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// A software Maestro, speaking the same vendor control requests as the real device
+public class EmulatedDriverBinding implements DriverBinding {
+
+    public static class Builder {
+
+        private final Product product;
+        private String serial = "00000000";
+        private int firmwareMajor = 1;
+        private int firmwareMinor = 4;
+        private long latency = 0;
+        private long jitter = 0;
+        private double errorRate = 0;
+        private double timeoutRate = 0;
+        private long seed = System.nanoTime();
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder(Product product) {
+            this.product = product;
+        }
+
+        public Builder setSerial(String serial) {
+            this.serial = serial;
+            return this;
+        }
+
+        public Builder setFirmwareVersion(int major, int minor) {
+            this.firmwareMajor = major;
+            this.firmwareMinor = minor;
+            return this;
+        }
+
+        public Builder setLatency(long latency, TimeUnit unit) {
+            this.latency = unit.toNanos(latency);
+            return this;
+        }
+
+        // Up to this much is randomly added to the latency of each transfer
+        public Builder setJitter(long jitter, TimeUnit unit) {
+            this.jitter = unit.toNanos(jitter);
+            return this;
+        }
+
+        // The probability of any transfer failing
+        public Builder setErrorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        // The probability of any transfer timing out, after waiting for the full timeout
+        public Builder setTimeoutRate(double timeoutRate) {
+            this.timeoutRate = timeoutRate;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        // Drives servo motion, replace with a fake ticker for deterministic tests
+        public Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public EmulatedDriverBinding build() {
+            return new EmulatedDriverBinding(product, serial, firmwareMajor, firmwareMinor, latency, jitter, errorRate, timeoutRate, new Random(seed), ticker);
+        }
+    }
+
+    public static Builder builder(Product product) {
+        return new Builder(product);
+    }
+
+    // Servos are updated every 10ms
+    private static final long TICK_LENGTH = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // Beyond this many ticks every servo has long since settled
+    private static final long MAX_TICKS = 100000;
+
+    private static final int PARAMETERS_LENGTH = 256;
+    private static final int DEVICE_DESCRIPTOR_LENGTH = 18;
+    private static final int SERVO_STATUS_LENGTH = 7;
+
+    private static final int SCRIPT_BLOCK_LENGTH = 16;
+    private static final int SUBROUTINE_TABLE_LENGTH = 256;
+
+    private static final int MICRO_VARIABLES_LENGTH = 1 + 1 + 2 + 2 + (2 * 3) + (2 * 32) + (2 * 10) + 1 + 1;
+    private static final int MINI_VARIABLES_LENGTH = 1 + 1 + 2 + 2 + 1 + 1;
+
+    private static int toBcd(int value) {
+        return ((value / 10) << 4) | (value % 10);
+    }
+
+    private final Product product;
+    private final String serial;
+    private final int firmwareMajor;
+    private final int firmwareMinor;
+    private final long latency;
+    private final long jitter;
+    private final double errorRate;
+    private final double timeoutRate;
+    private final Random random;
+    private final Ticker ticker;
+
+    // EEPROM, indexed by parameter code
+    private final byte[] parameters;
+
+    private final int[] positions;
+    private final int[] targets;
+    private final int[] speeds;
+    private final int[] accelerations;
+
+    // Current speed of each servo, in quarter-microseconds per tick
+    private final double[] velocities;
+
+    // Script followed by the subroutine table, scripts are stored but never run
+    private final byte[] script;
+    private boolean scriptDone;
+    private int scriptSubroutine = -1;
+
+    private int errors;
+    private volatile boolean connected = true;
+    private long lastTick;
+    private long transfers;
+
+    private EmulatedDriverBinding(Product product, String serial, int firmwareMajor, int firmwareMinor, long latency, long jitter, double errorRate, double timeoutRate, Random random, Ticker ticker) {
+        this.product = product;
+        this.serial = serial;
+        this.firmwareMajor = firmwareMajor;
+        this.firmwareMinor = firmwareMinor;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+        this.timeoutRate = timeoutRate;
+        this.random = random;
+        this.ticker = ticker;
+
+        parameters = new byte[PARAMETERS_LENGTH];
+
+        final int ports = product.getPorts();
+        positions = new int[ports];
+        targets = new int[ports];
+        speeds = new int[ports];
+        accelerations = new int[ports];
+        velocities = new double[ports];
+
+        script = new byte[product.getMaxScriptLength() + SUBROUTINE_TABLE_LENGTH];
+
+        lastTick = ticker.read();
+    }
+
+    @Override
+    public ByteBuffer allocateBuffer(int length) {
+        return ByteBuffer.allocate(length);
+    }
+
+    @Override
+    public int getVendorId() {
+        return product.getVendorId();
+    }
+
+    @Override
+    public int getProductId() {
+        return product.getProductId();
+    }
+
+    @Override
+    public String getSerial() {
+        return serial;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public synchronized int getPosition(int servo) {
+        this.advance();
+        return positions[servo];
+    }
+
+    public synchronized int getTarget(int servo) {
+        return targets[servo];
+    }
+
+    public synchronized int getSpeed(int servo) {
+        return speeds[servo];
+    }
+
+    public synchronized int getAcceleration(int servo) {
+        return accelerations[servo];
+    }
+
+    public synchronized int getParameter(int code, int bytes) {
+        int value = 0;
+        for (int i = bytes - 1; i >= 0; i--)
+            value = (value << 8) | (parameters[code + i] & 0xFF);
+
+        return value;
+    }
+
+    public synchronized byte[] getScriptMemory() {
+        return script.clone();
+    }
+
+    public synchronized boolean isScriptDone() {
+        return scriptDone;
+    }
+
+    // The subroutine the script was last restarted at, or -1 if restarted from the beginning
+    public synchronized int getScriptSubroutine() {
+        return scriptSubroutine;
+    }
+
+    public synchronized long getTransferCount() {
+        return transfers;
+    }
+
+    // Unplugs the device, every transfer fails until it is reattached. Like losing power, the
+    // servos stop and targets, speeds and accelerations are reset, only parameters and the script survive.
+    public synchronized void disconnect() {
+        connected = false;
+
+        Arrays.fill(targets, 0);
+        Arrays.fill(speeds, 0);
+        Arrays.fill(accelerations, 0);
+        Arrays.fill(velocities, 0);
+    }
+
+    public void reattach() {
+        connected = true;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index, ByteBuffer buffer, int timeout) throws IOException {
+        if (!connected)
+            throw new DeviceDisconnectedException("USB device disconnected.");
+
+        this.delay(timeout);
+
+        synchronized (this) {
+            transfers++;
+            this.advance();
+
+            return this.handle(requestType, request, value, index, buffer);
+        }
+    }
+
+    private void delay(int timeout) throws IOException {
+        final double chance;
+        final long delay;
+
+        synchronized (random) {
+            chance = random.nextDouble();
+            delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        }
+
+        if (chance < timeoutRate) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(timeout));
+            throw new TransferTimeoutException("USB device timed out.");
+        }
+
+        if (delay > 0)
+            LockSupport.parkNanos(delay);
+
+        if (chance < timeoutRate + errorRate)
+            throw new IOException("Unknown error occurred: injected by emulator.");
+    }
+
+    private int handle(int requestType, int request, int value, int index, ByteBuffer buffer) throws IOException {
+        for (Request candidate : Request.values()) {
+            if (candidate.getCode() != request || candidate.getType().getCode() != requestType)
+                continue;
+
+            switch (candidate) {
+                case GET_FIRMWARE_VERSION:
+                    if (value == 0x0100)
+                        return this.getDeviceDescriptor(buffer);
+                    break;
+                case GET_PARAMETER:
+                    return this.readParameter(index & 0xFF, buffer);
+                case SET_PARAMETER:
+                    this.writeParameter(index & 0xFF, index >> 8, value);
+                    return 0;
+                case GET_VARIABLES:
+                    return this.getVariables(buffer);
+                case SET_VARIABLE:
+                    this.setVariable(index & 0x7F, (index & 0x80) != 0, value);
+                    return 0;
+                case SET_TARGET:
+                    this.setTarget(index, value);
+                    return 0;
+                case CLEAR_ERRORS:
+                    errors = 0;
+                    return 0;
+                case ERASE_SCRIPT:
+                    Arrays.fill(script, (byte) 0xFF);
+                    return 0;
+                case WRITE_SCRIPT:
+                    return this.writeScript(index, buffer);
+                case SET_SCRIPT_DONE:
+                    scriptDone = value != 0;
+                    return 0;
+                case RESTART_SCRIPT:
+                    this.restartScript(-1);
+                    return 0;
+                case RESTART_SCRIPT_AT_SUBROUTINE:
+                case RESTART_SCRIPT_AT_SUBROUTINE_WITH_PARAMETER:
+                    this.restartScript(index);
+                    return 0;
+                case GET_SETTINGS:
+                    // Servo statuses are only read separately on the mini maestros
+                    if (product != Product.MICRO6)
+                        return this.putServoStatus(buffer, 0);
+                    break;
+            }
+
+            break;
+        }
+
+        throw new IOException("Control request type: " + requestType + ", request: " + request + " not supported by device.");
+    }
+
+    private int writeScript(int block, ByteBuffer buffer) throws IOException {
+        final int offset = block * SCRIPT_BLOCK_LENGTH;
+        if (buffer == null || buffer.remaining() != SCRIPT_BLOCK_LENGTH || offset + SCRIPT_BLOCK_LENGTH > script.length)
+            throw new IOException("Control request type: " + RequestType.SET.getCode() + ", request: " + Request.WRITE_SCRIPT.getCode() + " not supported by device.");
+
+        for (int i = 0; i < SCRIPT_BLOCK_LENGTH; i++)
+            script[offset + i] = buffer.get(buffer.position() + i);
+
+        return SCRIPT_BLOCK_LENGTH;
+    }
+
+    private void restartScript(int subroutine) {
+        scriptDone = false;
+        scriptSubroutine = subroutine;
+    }
+
+    private int getDeviceDescriptor(ByteBuffer buffer) {
+        final ByteBuffer descriptor = ByteBuffer.allocate(DEVICE_DESCRIPTOR_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+        descriptor.put((byte) DEVICE_DESCRIPTOR_LENGTH);    // bLength
+        descriptor.put((byte) 1);                           // bDescriptorType
+        descriptor.putShort((short) 0x0200);                // bcdUSB
+        descriptor.put((byte) 0xEF);                        // bDeviceClass
+        descriptor.put((byte) 2);                           // bDeviceSubClass
+        descriptor.put((byte) 1);                           // bDeviceProtocol
+        descriptor.put((byte) 8);                           // bMaxPacketSize0
+        descriptor.putShort((short) product.getVendorId()); // idVendor
+        descriptor.putShort((short) product.getProductId());// idProduct
+        descriptor.put((byte) EmulatedDriverBinding.toBcd(firmwareMinor)); // bcdDevice
+        descriptor.put((byte) EmulatedDriverBinding.toBcd(firmwareMajor));
+        descriptor.put((byte) 1);                           // iManufacturer
+        descriptor.put((byte) 2);                           // iProduct
+        descriptor.put((byte) 3);                           // iSerialNumber
+        descriptor.put((byte) 1);                           // bNumConfigurations
+
+        return this.put(buffer, descriptor.array(), 0, DEVICE_DESCRIPTOR_LENGTH);
+    }
+
+    private int readParameter(int code, ByteBuffer buffer) {
+        return this.put(buffer, parameters, code, Math.min(buffer.remaining(), PARAMETERS_LENGTH - code));
+    }
+
+    private void writeParameter(int code, int bytes, int value) throws IOException {
+        if (bytes < 1 || bytes > 4 || code + bytes > PARAMETERS_LENGTH)
+            throw new IOException("Control request type: " + RequestType.SET.getCode() + ", request: " + Request.SET_PARAMETER.getCode() + " not supported by device.");
+
+        // Stored little endian, like the real EEPROM
+        for (int i = 0; i < bytes; i++)
+            parameters[code + i] = (byte) (value >> (i * 8));
+    }
+
+    private int getVariables(ByteBuffer buffer) {
+        // Only the error flags are emulated, the stack and program counter are left zeroed
+        final int header = product == Product.MICRO6 ? MICRO_VARIABLES_LENGTH : MINI_VARIABLES_LENGTH;
+        final ByteBuffer variables = ByteBuffer.allocate(header).order(ByteOrder.LITTLE_ENDIAN);
+        variables.putShort(2, (short) errors);
+
+        final int written = this.put(buffer, variables.array(), 0, Math.min(buffer.remaining(), header));
+        if (product != Product.MICRO6)
+            return written;
+
+        // The micro maestro appends the servo statuses to its variables
+        return written + this.putServoStatus(buffer, written);
+    }
+
+    private int putServoStatus(ByteBuffer buffer, int offset) {
+        final ByteBuffer status = ByteBuffer.allocate(positions.length * SERVO_STATUS_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        for (int servo = 0; servo < positions.length; servo++) {
+            status.putShort((short) positions[servo]);
+            status.putShort((short) targets[servo]);
+            status.putShort((short) speeds[servo]);
+            status.put((byte) accelerations[servo]);
+        }
+
+        final int length = Math.min(Math.max(buffer.remaining() - offset, 0), status.capacity());
+        for (int i = 0; i < length; i++)
+            buffer.put(buffer.position() + offset + i, status.get(i));
+
+        return length;
+    }
+
+    // Copies without moving the buffer position, as a real transfer would
+    private int put(ByteBuffer buffer, byte[] bytes, int offset, int length) {
+        if (buffer == null)
+            return 0;
+
+        length = Math.min(length, buffer.remaining());
+        for (int i = 0; i < length; i++)
+            buffer.put(buffer.position() + i, bytes[offset + i]);
+
+        return length;
+    }
+
+    private void setVariable(int servo, boolean acceleration, int value) throws IOException {
+        this.checkServo(servo);
+
+        if (acceleration)
+            accelerations[servo] = Math.min(value, 255);
+        else
+            speeds[servo] = value & 0xFFFF;
+    }
+
+    private void setTarget(int servo, int value) throws IOException {
+        this.checkServo(servo);
+
+        // A servo which wasn't being driven jumps straight to its first target
+        if (targets[servo] == 0 || positions[servo] == 0)
+            positions[servo] = value;
+
+        targets[servo] = value & 0xFFFF;
+    }
+
+    private void checkServo(int servo) throws IOException {
+        if (servo >= positions.length)
+            throw new IOException("Control request type: " + RequestType.SET.getCode() + " for servo " + servo + " not supported by device.");
+    }
+
+    private void advance() {
+        final long now = ticker.read();
+        final long ticks = Math.min((now - lastTick) / TICK_LENGTH, MAX_TICKS);
+        if (ticks <= 0)
+            return;
+
+        lastTick += ticks * TICK_LENGTH;
+
+        for (long tick = 0; tick < ticks; tick++) {
+            if (!this.tick())
+                break;
+        }
+    }
+
+    // Moves every servo one tick towards its target, returns false once they have all settled
+    private boolean tick() {
+        boolean moving = false;
+
+        for (int servo = 0; servo < positions.length; servo++) {
+            final int distance = targets[servo] - positions[servo];
+            if (distance == 0) {
+                velocities[servo] = 0;
+                continue;
+            }
+
+            final int remaining = Math.abs(distance);
+
+            double velocity;
+            if (accelerations[servo] == 0) {
+                velocity = speeds[servo] == 0 ? remaining : speeds[servo];
+            }
+            else {
+                // Acceleration is the change in speed per 80ms, so an eighth of it each tick
+                final double acceleration = accelerations[servo] / 8D;
+
+                velocity = velocities[servo] + acceleration;
+                if (speeds[servo] > 0)
+                    velocity = Math.min(velocity, speeds[servo]);
+
+                // Slow down in time to stop at the target
+                velocity = Math.min(velocity, Math.max(Math.sqrt(2 * acceleration * remaining), 1));
+            }
+
+            final int step = (int) Math.min(remaining, Math.max(Math.round(velocity), 1));
+            positions[servo] += distance > 0 ? step : -step;
+            velocities[servo] = positions[servo] == targets[servo] ? 0 : velocity;
+
+            moving = true;
+        }
+
+        return moving;
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
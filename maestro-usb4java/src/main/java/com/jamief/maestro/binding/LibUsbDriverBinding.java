@@ -1,25 +1,167 @@
 package com.jamief.maestro.binding;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.jamierf.maestro.api.Product;
 import com.jamierf.maestro.binding.AsyncBindingListener;
-import com.jamierf.maestro.binding.DriverBinding;
+import com.jamierf.maestro.binding.AsyncDriverBinding;
+import com.jamierf.maestro.binding.BufferPool;
+import com.jamierf.maestro.binding.DeviceDisconnectedException;
+import com.jamierf.maestro.binding.TransferTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.usb4java.*;
 
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
-public class LibUsbDriverBinding implements DriverBinding {
+public class LibUsbDriverBinding implements AsyncDriverBinding {
 
-    public static void bindToDevice(Product product, AsyncBindingListener listener) {
-        try {
+    private static final Logger LOG = LoggerFactory.getLogger(LibUsbDriverBinding.class);
+
+    // Shared by every zero length transfer, nothing is ever read in to it
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocateDirect(0);
+
+    private static final int TRANSFER_POOL_SIZE = 16;
+
+    // How long the event thread blocks in libusb at a time, in microseconds
+    private static final long EVENT_TIMEOUT = 250000;
+
+    private static IOException toException(int type, int request, int error) {
+        switch (error) {
+            case LibUsb.ERROR_TIMEOUT: return new TransferTimeoutException("USB device timed out.");
+            case LibUsb.ERROR_NO_DEVICE: return new DeviceDisconnectedException("USB device disconnected.");
+            case LibUsb.ERROR_PIPE: return new IOException("Control request type: " + type + ", request: " + request + " not supported by device.");
+            default: return new IOException("Unknown error occurred: " + error + ".");
+        }
+    }
+
+    private static IOException toTransferException(int type, int request, int status) {
+        switch (status) {
+            case LibUsb.TRANSFER_TIMED_OUT: return LibUsbDriverBinding.toException(type, request, LibUsb.ERROR_TIMEOUT);
+            case LibUsb.TRANSFER_STALL: return LibUsbDriverBinding.toException(type, request, LibUsb.ERROR_PIPE);
+            case LibUsb.TRANSFER_NO_DEVICE: return LibUsbDriverBinding.toException(type, request, LibUsb.ERROR_NO_DEVICE);
+            default: return new IOException("Transfer failed with status: " + status + ".");
+        }
+    }
+
+    // Shared by every binding, libusb contexts are expensive and independent of the devices
+    private static Context context;
+
+    static synchronized Context getContext() {
+        if (context == null) {
             final Context context = new Context();
-            LibUsb.init(context);
-            final DeviceHandle handle = LibUsb.openDeviceWithVidPid(context, (short)product.getVendorId(), (short)product.getProductId());
-            if (handle == null)
+
+            final int result = LibUsb.init(context);
+            if (result != LibUsb.SUCCESS)
+                throw new LibUsbException("Unable to initialize libusb", result);
+
+            // A single thread completes the async transfers of every binding
+            final Thread events = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true)
+                        LibUsb.handleEventsTimeout(context, EVENT_TIMEOUT);
+                }
+            }, "libusb-events");
+
+            events.setDaemon(true);
+            events.start();
+
+            LibUsbDriverBinding.context = context;
+        }
+
+        return context;
+    }
+
+    // Opens every attached Maestro, of any product
+    public static List<LibUsbDriverBinding> findAll() throws IOException {
+        return LibUsbDriverBinding.find(Optional.<Product>absent());
+    }
+
+    // Devices which can't be opened, such as those held by another process, are skipped
+    private static List<LibUsbDriverBinding> find(Optional<Product> product) throws IOException {
+        final DeviceList devices = new DeviceList();
+
+        final int result = LibUsb.getDeviceList(LibUsbDriverBinding.getContext(), devices);
+        if (result < 0)
+            throw new IOException("Unable to list USB devices: " + LibUsb.errorName(result) + ".");
+
+        try {
+            final List<LibUsbDriverBinding> bindings = Lists.newArrayList();
+
+            for (Device device : devices) {
+                final DeviceDescriptor descriptor = new DeviceDescriptor();
+                if (LibUsb.getDeviceDescriptor(device, descriptor) != LibUsb.SUCCESS)
+                    continue;
+
+                final Optional<Product> found = Product.fromId(descriptor.idVendor() & 0xFFFF, descriptor.idProduct() & 0xFFFF);
+                if (!found.isPresent())
+                    continue;
+
+                // Only open the product we're after, there's no need to touch any other device
+                if (product.isPresent() && found.get() != product.get())
+                    continue;
+
+                try {
+                    bindings.add(LibUsbDriverBinding.open(device));
+                } catch (IOException e) {
+                    LOG.warn("Skipping " + found.get() + " which couldn't be opened", e);
+                }
+            }
+
+            return bindings;
+        } finally {
+            LibUsb.freeDeviceList(devices, true);
+        }
+    }
+
+    // Opens a device found in the shared context
+    static LibUsbDriverBinding open(Device device) throws IOException {
+        final DeviceHandle handle = new DeviceHandle();
+        final int opened = LibUsb.open(device, handle);
+        if (opened != LibUsb.SUCCESS)
+            throw new IOException("Unable to open USB device: " + LibUsb.errorName(opened) + ".");
+
+        return new LibUsbDriverBinding(handle, true);
+    }
+
+    public static void bindToAll(AsyncBindingListener<? super LibUsbDriverBinding> listener) {
+        try {
+            for (LibUsbDriverBinding binding : LibUsbDriverBinding.findAll())
+                listener.onBind(binding.getVendorId(), binding.getProductId(), binding);
+        } catch (Exception e) {
+            listener.onException(e);
+        }
+    }
+
+    public static void bindToDevice(Product product, AsyncBindingListener<? super LibUsbDriverBinding> listener) {
+        LibUsbDriverBinding.bindToDevice(product, null, listener);
+    }
+
+    // Binds to the device with the given serial number, or the first device of the product if null
+    public static void bindToDevice(Product product, String serial, AsyncBindingListener<? super LibUsbDriverBinding> listener) {
+        try {
+            LibUsbDriverBinding match = null;
+
+            for (LibUsbDriverBinding binding : LibUsbDriverBinding.find(Optional.of(product))) {
+                final boolean matches = serial == null || serial.equals(binding.getSerial());
+
+                if (matches && match == null)
+                    match = binding;
+                else
+                    binding.close();
+            }
+
+            if (match == null)
                 throw new RuntimeException("Unable to find USB device");
 
-            listener.onBind(product.getVendorId(), product.getProductId(), new LibUsbDriverBinding(handle));
+            listener.onBind(product.getVendorId(), product.getProductId(), match);
         } catch (Exception e) {
             listener.onException(e);
         }
@@ -27,9 +169,24 @@ public class LibUsbDriverBinding implements DriverBinding {
 
     private final DeviceHandle handle;
     private final DeviceDescriptor descriptor;
+    private final String serial;
+
+    // Async transfers are only completed for devices opened in the shared context
+    private final boolean shared;
+    private final BufferPool transferBuffers;
+
+    // A binding may be closed by both a failed reconnect and the connection it was given to
+    private boolean closed;
 
     public LibUsbDriverBinding(DeviceHandle handle) {
+        this (handle, false);
+    }
+
+    private LibUsbDriverBinding(DeviceHandle handle, boolean shared) {
         this.handle = handle;
+        this.shared = shared;
+
+        transferBuffers = new BufferPool(this, TRANSFER_POOL_SIZE);
 
         final Device device = LibUsb.getDevice(handle);
 
@@ -37,6 +194,9 @@ public class LibUsbDriverBinding implements DriverBinding {
         LibUsb.getDeviceDescriptor(device, descriptor);
 
         this.descriptor = descriptor;
+
+        // Read once, it can't change while the device is open
+        serial = LibUsb.getStringDescriptor(handle, descriptor.iSerialNumber());
     }
 
     @Override
@@ -46,36 +206,97 @@ public class LibUsbDriverBinding implements DriverBinding {
 
     @Override
     public int getVendorId() {
-        return descriptor.idVendor();
+        return descriptor.idVendor() & 0xFFFF;
     }
 
     @Override
     public int getProductId() {
-        return descriptor.idProduct();
+        return descriptor.idProduct() & 0xFFFF;
     }
 
     @Override
     public String getSerial() {
-        return String.valueOf(descriptor.iSerialNumber());
+        return serial;
     }
 
     @Override
     public int controlTransfer(int type, int request, int value, int index, ByteBuffer buffer, int timeout) throws IOException {
         if (buffer == null)
-            buffer = this.allocateBuffer(0);
+            buffer = EMPTY_BUFFER;
+
         final int read = LibUsb.controlTransfer(handle, (byte)type, (byte)request, (short)value, (short)index, buffer, timeout);
         if (read >= 0)
             return read;
 
-        switch (read) {
-            case LibUsb.ERROR_TIMEOUT: throw new IOException("USB device timed out.");
-            case LibUsb.ERROR_PIPE: throw new IOException("Control request type: " + type + ", request: " + request + " not supported by device.");
-            default: throw new IOException("Unknown error occurred: " + read + ".");
+        throw LibUsbDriverBinding.toException(type, request, read);
+    }
+
+    @Override
+    public ListenableFuture<Integer> submitControlTransfer(final int type, final int request, int value, int index, final ByteBuffer buffer, int timeout) {
+        if (!shared) {
+            try {
+                return Futures.immediateFuture(this.controlTransfer(type, request, value, index, buffer, timeout));
+            } catch (IOException e) {
+                return Futures.immediateFailedFuture(e);
+            }
         }
+
+        final int length = buffer == null ? 0 : buffer.remaining();
+        final boolean in = (type & LibUsb.ENDPOINT_IN) != 0;
+
+        // Async control transfers carry the setup packet at the start of their buffer
+        final ByteBuffer transferBuffer = transferBuffers.acquire(LibUsb.CONTROL_SETUP_SIZE + length);
+        LibUsb.fillControlSetup(transferBuffer, (byte)type, (byte)request, (short)value, (short)index, (short)length);
+
+        if (!in) {
+            for (int i = 0; i < length; i++)
+                transferBuffer.put(LibUsb.CONTROL_SETUP_SIZE + i, buffer.get(buffer.position() + i));
+        }
+
+        final SettableFuture<Integer> future = SettableFuture.create();
+        final Transfer transfer = LibUsb.allocTransfer();
+
+        LibUsb.fillControlTransfer(transfer, handle, transferBuffer, new TransferCallback() {
+            @Override
+            public void processTransfer(Transfer transfer) {
+                try {
+                    final int status = transfer.status();
+                    if (status != LibUsb.TRANSFER_COMPLETED) {
+                        future.setException(LibUsbDriverBinding.toTransferException(type, request, status));
+                        return;
+                    }
+
+                    final int read = transfer.actualLength();
+                    if (in) {
+                        for (int i = 0; i < read; i++)
+                            buffer.put(buffer.position() + i, transferBuffer.get(LibUsb.CONTROL_SETUP_SIZE + i));
+                    }
+
+                    future.set(read);
+                } finally {
+                    LibUsb.freeTransfer(transfer);
+                    transferBuffers.release(transferBuffer);
+                }
+            }
+        }, null, timeout);
+
+        final int result = LibUsb.submitTransfer(transfer);
+        if (result != LibUsb.SUCCESS) {
+            LibUsb.freeTransfer(transfer);
+            transferBuffers.release(transferBuffer);
+
+            return Futures.immediateFailedFuture(LibUsbDriverBinding.toException(type, request, result));
+        }
+
+        return future;
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
+        if (closed)
+            return;
+
+        closed = true;
         LibUsb.close(handle);
     }
 }
@@ -0,0 +1,195 @@
+package com.jamief.maestro.binding;
+
+import com.google.common.collect.Maps;
+import com.jamierf.maestro.MaestroServoController;
+import com.jamierf.maestro.api.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usb4java.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Reconnects watched controllers when their device reappears, matched by serial number. Uses libusb
+// hot-plug notifications where the platform supports them, otherwise polls for disconnected devices.
+public class LibUsbHotplugMonitor implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LibUsbHotplugMonitor.class);
+
+    private static final long POLL_PERIOD = TimeUnit.SECONDS.toMillis(1);
+
+    // A device may not answer straight after it arrives, so a failed reconnect is retried
+    private static final long RETRY_DELAY = 100;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final ConcurrentMap<String, MaestroServoController> controllers;
+    private final ScheduledExecutorService executor;
+    private final HotplugCallbackHandle callback;
+
+    public LibUsbHotplugMonitor() {
+        controllers = Maps.newConcurrentMap();
+
+        // Nothing is opened on the libusb event thread, it also completes every async transfer
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "maestro-hotplug");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final Context context = LibUsbDriverBinding.getContext();
+
+        if (!LibUsb.hasCapability(LibUsb.CAP_HAS_HOTPLUG)) {
+            LOG.info("Hot-plug notifications unsupported, polling for devices every " + POLL_PERIOD + "ms");
+
+            callback = null;
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    LibUsbHotplugMonitor.this.poll();
+                }
+            }, POLL_PERIOD, POLL_PERIOD, TimeUnit.MILLISECONDS);
+
+            return;
+        }
+
+        callback = new HotplugCallbackHandle();
+
+        final int result = LibUsb.hotplugRegisterCallback(context,
+                LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED | LibUsb.HOTPLUG_EVENT_DEVICE_LEFT, 0,
+                Product.MICRO6.getVendorId(), LibUsb.HOTPLUG_MATCH_ANY, LibUsb.HOTPLUG_MATCH_ANY,
+                new HotplugCallback() {
+                    @Override
+                    public int processEvent(Context context, Device device, int event, Object userData) {
+                        LibUsbHotplugMonitor.this.onEvent(device, event);
+
+                        // Stay registered
+                        return 0;
+                    }
+                }, null, callback);
+
+        if (result != LibUsb.SUCCESS) {
+            executor.shutdown();
+            throw new LibUsbException("Unable to register hot-plug callback", result);
+        }
+    }
+
+    public void watch(MaestroServoController controller) {
+        controllers.put(controller.getSerialNumber(), controller);
+    }
+
+    public void unwatch(MaestroServoController controller) {
+        controllers.remove(controller.getSerialNumber(), controller);
+    }
+
+    private void onEvent(final Device device, int event) {
+        if (event == LibUsb.HOTPLUG_EVENT_DEVICE_LEFT) {
+            // A departed device can't be opened to read its serial number, so we can't tell which
+            // controller it was. Its next transfer fails immediately and marks it disconnected.
+            LOG.debug("USB device left");
+            return;
+        }
+
+        // Keep the device alive until we've opened it
+        LibUsb.refDevice(device);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LibUsbHotplugMonitor.this.onArrived(device);
+                } finally {
+                    LibUsb.unrefDevice(device);
+                }
+            }
+        });
+    }
+
+    private void onArrived(Device device) {
+        final DeviceDescriptor descriptor = new DeviceDescriptor();
+        if (LibUsb.getDeviceDescriptor(device, descriptor) != LibUsb.SUCCESS)
+            return;
+
+        if (!Product.fromId(descriptor.idVendor() & 0xFFFF, descriptor.idProduct() & 0xFFFF).isPresent())
+            return;
+
+        final LibUsbDriverBinding binding;
+        try {
+            binding = LibUsbDriverBinding.open(device);
+        } catch (IOException e) {
+            LOG.warn("Unable to open arrived USB device", e);
+            return;
+        }
+
+        final MaestroServoController controller = controllers.get(binding.getSerial());
+        if (controller == null) {
+            binding.close();
+            return;
+        }
+
+        // A device arriving means any handle we had to it is dead, even if no transfer noticed yet
+        this.reconnect(controller, binding, 1);
+    }
+
+    private void poll() {
+        boolean disconnected = false;
+        for (MaestroServoController controller : controllers.values())
+            disconnected |= !controller.isConnected();
+
+        if (!disconnected)
+            return;
+
+        try {
+            for (LibUsbDriverBinding binding : LibUsbDriverBinding.findAll()) {
+                final MaestroServoController controller = controllers.get(binding.getSerial());
+                // The next poll is the retry, so a failure closes the binding straight away
+                if (controller != null && !controller.isConnected())
+                    this.reconnect(controller, binding, MAX_ATTEMPTS);
+                else
+                    binding.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to list USB devices", e);
+        } catch (RuntimeException e) {
+            // Don't let a failure cancel future polls
+            LOG.warn("Failed to poll for USB devices", e);
+        }
+    }
+
+    private void reconnect(final MaestroServoController controller, final LibUsbDriverBinding binding, final int attempt) {
+        try {
+            controller.reconnect(binding);
+        } catch (RuntimeException e) {
+            if (attempt >= MAX_ATTEMPTS) {
+                LOG.warn("Unable to reconnect to " + controller, e);
+
+                // The controller is left disconnected, so won't touch the binding again until given a new one
+                binding.close();
+                return;
+            }
+
+            LOG.debug("Failed to reconnect to " + controller + ", retrying", e);
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    LibUsbHotplugMonitor.this.reconnect(controller, binding, attempt + 1);
+                }
+            }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (callback != null)
+            LibUsb.hotplugDeregisterCallback(LibUsbDriverBinding.getContext(), callback);
+
+        executor.shutdownNow();
+    }
+}